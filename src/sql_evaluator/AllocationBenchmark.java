@@ -0,0 +1,61 @@
+package sql_evaluator;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Measures the memory allocated by evaluating the where clause of a query over the cross
+ * product of its tables, without projecting the matching rows, with the interpreted and
+ * the compiled filter.
+ *
+ * Comparing the cells doesn't allocate, so the bytes allocated by an evaluation only
+ * depend on the number of rows of the tables, e.g. for the row selections of the
+ * ScanPlanner. They don't depend on the number of rows of the cross product, and the
+ * bytes per cross product row shrink towards 0 as the cross product grows.
+ *
+ * Usage: AllocationBenchmark <table-folder> <sql-json-file> [<iterations>]
+ *
+ * The tables are loaded as by Main, e.g. off the heap with
+ * -Dsql_evaluator.off_heap_tables=*. The allocated bytes are read from
+ * com.sun.management.ThreadMXBean, i.e. this needs a HotSpot JVM. The minimum over the
+ * iterations is reported, once the JIT has removed the allocations it can.
+ */
+public final class AllocationBenchmark {
+  private AllocationBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    Benchmarks.CheckUsage(args, 2, 3,
+      "AllocationBenchmark <table-folder> <sql-json-file> [<iterations>]");
+    Query query = JacksonUtil.readFromFile(args[1], Query.class);
+    int num_iterations = Benchmarks.IntArg(args, 2, 1000);
+    Map<String, Table> table_name_map = Main.loadTables(args[0], query, null);
+    long num_cross_rows = 1;
+    for (Table table : table_name_map.values()) {
+      num_cross_rows *= table.storage.NumRows();
+    }
+
+    PrintWriter errors = new PrintWriter(System.out, true);
+    QueryEvaluator interpreted = new QueryEvaluator(query, errors, table_name_map);
+    QueryEvaluator compiled = new QueryEvaluator(query, errors, table_name_map);
+    compiled.SetCompileFilter(true);
+    if (!interpreted.Prepare() || !compiled.Prepare()) {
+      System.exit(1); return;
+    }
+    long num_matching = interpreted.CountMatchingRows();
+
+    com.sun.management.ThreadMXBean thread_bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread_id = Thread.currentThread().getId();
+    long[][] allocated_bytes = Benchmarks.Measure(num_iterations,
+      () -> thread_bean.getThreadAllocatedBytes(thread_id),
+      interpreted::CountMatchingRows, compiled::CountMatchingRows);
+    String[] names = {"interpreted", "compiled"};
+    for (int i = 0; i < names.length; i++) {
+      long min_bytes = allocated_bytes[i][0];
+      System.out.printf("%-11s cross product rows=%d matching=%d " +
+          "allocated bytes/evaluation=%d bytes/row=%.4f%n", names[i], num_cross_rows,
+        num_matching, min_bytes, (double) min_bytes / Math.max(1, num_cross_rows));
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package sql_evaluator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * OutputStream that writes to a channel on a dedicated thread, so that serializing the
+ * output overlaps with writing it.
+ *
+ * Bytes are collected in large direct buffers which are queued for the writer thread once
+ * full. Written buffers are handed back to be filled again, so only a fixed number of
+ * buffers is ever taken from DirectBufferPool, and only as many as needed. They're
+ * released to the pool on close. flush() only queues the partially filled buffer, close()
+ * waits for all the bytes to be written.
+ */
+public final class AsyncOutputStream extends OutputStream {
+  private static final int kNumBuffers = 4;
+  // Queued after the last buffer to stop the writer thread.
+  private static final ByteBuffer kEndOfStream = ByteBuffer.allocate(0);
+
+  private final WritableByteChannel channel_;
+  // Buffers filled waiting to be written by the writer thread.
+  private final BlockingQueue<ByteBuffer> filled_ = new ArrayBlockingQueue<>(kNumBuffers + 1);
+  // Buffers written waiting to be filled again.
+  private final BlockingQueue<ByteBuffer> free_ = new ArrayBlockingQueue<>(kNumBuffers);
+  private final Thread writer_;
+  // Counted down once the writer thread is done with the buffers. Waited for instead of
+  // joining the thread, which waits on its monitor and would pin a virtual thread closing
+  // the stream until the whole output is written.
+  private final CountDownLatch writer_done_ = new CountDownLatch(1);
+  // Buffers taken from the pool.
+  private final ByteBuffer[] buffers_ = new ByteBuffer[kNumBuffers];
+  private int num_buffers_ = 0;
+  // Error encountered by the writer thread, rethrown on the next write, flush or close.
+  private volatile Throwable error_;
+  // Buffer being filled.
+  private ByteBuffer current_;
+  private boolean closed_ = false;
+
+  /**
+   * @param channel channel to write to, closed when the stream is closed.
+   */
+  public AsyncOutputStream(WritableByteChannel channel) {
+    channel_ = channel;
+    current_ = TakeBuffer();
+    writer_ = new Thread(this::WriteLoop, "sql_evaluator-async-write");
+    writer_.setDaemon(true);
+    writer_.start();
+  }
+
+  private void WriteLoop() {
+    try {
+      while (true) {
+        ByteBuffer buf = filled_.take();
+        if (buf == kEndOfStream) {
+          return;
+        }
+        // After an error, keep draining the queue so that the producer doesn't block.
+        if (error_ == null) {
+          try {
+            while (buf.hasRemaining()) {
+              channel_.write(buf);
+            }
+          } catch (Throwable e) {
+            error_ = e;
+          }
+        }
+        buf.clear();
+        free_.put(buf);
+      }
+    } catch (InterruptedException e) {
+      // Only interrupted in case the producer failed to shut down cleanly.
+    } finally {
+      writer_done_.countDown();
+    }
+  }
+
+  private ByteBuffer TakeBuffer() {
+    ByteBuffer buf = DirectBufferPool.Take();
+    buffers_[num_buffers_++] = buf;
+    return buf;
+  }
+
+  private void CheckError() throws IOException {
+    ThrowError();
+    if (closed_) {
+      throw new IOException("stream closed");
+    }
+  }
+
+  // Queues the current buffer, if not empty, for the writer thread.
+  private void QueueCurrent() throws IOException {
+    if (current_.position() == 0) {
+      return;
+    }
+    current_.flip();
+    try {
+      filled_.put(current_);
+      current_ = free_.poll();
+      if (current_ == null) {
+        current_ = num_buffers_ < kNumBuffers ? TakeBuffer() : free_.take();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for async write");
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    CheckError();
+    if (!current_.hasRemaining()) {
+      QueueCurrent();
+    }
+    current_.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    CheckError();
+    while (len > 0) {
+      if (!current_.hasRemaining()) {
+        QueueCurrent();
+      }
+      int num_written = Math.min(len, current_.remaining());
+      current_.put(b, off, num_written);
+      off += num_written;
+      len -= num_written;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    CheckError();
+    QueueCurrent();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed_) {
+      return;
+    }
+    closed_ = true;
+    boolean end_queued = false;
+    try {
+      try {
+        QueueCurrent();
+        filled_.put(kEndOfStream);
+        end_queued = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for async write");
+      } finally {
+        StopWriter(end_queued);
+        // The writer thread is done with the buffers.
+        for (int i = 0; i < num_buffers_; i++) {
+          DirectBufferPool.Release(buffers_[i]);
+        }
+      }
+    } finally {
+      channel_.close();
+    }
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedIOException("interrupted while waiting for async write");
+    }
+    ThrowError();
+  }
+
+  // Waits for the writer thread to be done. It's interrupted in case the end of the stream
+  // couldn't be queued, e.g. after a failure to queue the last buffer, or in case this
+  // thread is interrupted, since it would otherwise keep waiting for buffers. The buffers
+  // can only be released once it has exited, so this waits even when interrupted.
+  private void StopWriter(boolean end_queued) {
+    boolean interrupted = Thread.interrupted();
+    if (!end_queued || interrupted) {
+      writer_.interrupt();
+    }
+    while (true) {
+      try {
+        writer_done_.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+        writer_.interrupt();
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Rethrows the error encountered by the writer thread, if any.
+  private void ThrowError() throws IOException {
+    if (error_ instanceof IOException) {
+      throw (IOException) error_;
+    }
+    if (error_ != null) {
+      throw new IOException("async write failed", error_);
+    }
+  }
+}
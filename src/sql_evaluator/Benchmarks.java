@@ -0,0 +1,89 @@
+package sql_evaluator;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Code shared by the benchmark main classes: checking their arguments and measuring
+ * repeated runs of the code they compare. The tables of a query are loaded with
+ * Main.loadTables(), so that the benchmarks measure the tables as Main loads them.
+ *
+ * The compared runs are alternated, so that they all see the same state of the page cache
+ * and of the JIT, after a round of runs warming up the JIT which isn't counted.
+ */
+final class Benchmarks {
+  private Benchmarks() {}
+
+  /**
+   * Code measured by a benchmark.
+   */
+  interface Body {
+    void Run() throws Exception;
+  }
+
+  /**
+   * Prints the usage and exits unless there are from 'min_args' to 'max_args' arguments.
+   */
+  static void CheckUsage(String[] args, int min_args, int max_args, String usage) {
+    if (args.length < min_args || args.length > max_args) {
+      System.err.println("Usage: " + usage);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Returns the integer argument at 'index', or 'default_value' if there is none.
+   */
+  static int IntArg(String[] args, int index, int default_value) {
+    return index < args.length ? Integer.parseInt(args[index]) : default_value;
+  }
+
+  /**
+   * Runs each of the bodies 'num_iterations' times, alternately, reading the counter before
+   * and after each run, e.g. System::nanoTime.
+   *
+   * @return  the sorted differences of the counter over the runs of each body.
+   */
+  static long[][] Measure(int num_iterations, LongSupplier counter, Body... bodies)
+    throws Exception {
+    long[][] measurements = new long[bodies.length][num_iterations];
+    // Iteration -1 warms up the JIT.
+    for (int i = -1; i < num_iterations; i++) {
+      for (int b = 0; b < bodies.length; b++) {
+        long start = counter.getAsLong();
+        bodies[b].Run();
+        long measurement = counter.getAsLong() - start;
+        if (i >= 0) {
+          measurements[b][i] = measurement;
+        }
+      }
+    }
+    for (long[] body_measurements : measurements) {
+      Arrays.sort(body_measurements);
+    }
+    return measurements;
+  }
+
+  /**
+   * Same as Measure(), for the times of the runs in nanoseconds.
+   */
+  static long[][] Time(int num_iterations, Body... bodies) throws Exception {
+    return Measure(num_iterations, System::nanoTime, bodies);
+  }
+
+  /**
+   * Returns the percentile of the sorted values, e.g. 50 for the median.
+   */
+  static long Percentile(long[] sorted_values, int percentile) {
+    return sorted_values[Math.min(sorted_values.length - 1,
+      (int) ((long) sorted_values.length * percentile / 100))];
+  }
+
+  /**
+   * Formats the best and median of the sorted times, in nanoseconds.
+   */
+  static String FormatTimes(long[] sorted_times_ns) {
+    return String.format("best %.1fms, median %.1fms", sorted_times_ns[0] / 1e6,
+      Percentile(sorted_times_ns, 50) / 1e6);
+  }
+}
@@ -0,0 +1,60 @@
+package sql_evaluator;
+
+/**
+ * Bloom filter over the hashes of join keys. Sized for a ~1% false positive rate with
+ * the expected number of keys.
+ */
+final class BloomFilter {
+  private static final int kBitsPerKey = 10;
+  private static final int kNumHashes = 7;
+
+  private final long[] bits_;
+  private final long num_bits_;
+
+  BloomFilter(int expected_num_keys) {
+    long num_words = Math.max(1, ((long) expected_num_keys * kBitsPerKey + 63) / 64);
+    bits_ = new long[(int) Math.min(num_words, Integer.MAX_VALUE - 8)];
+    num_bits_ = 64L * bits_.length;
+  }
+
+  static long Hash(int key) {
+    return Mix(key);
+  }
+
+  static long Hash(String key) {
+    return Mix(key.hashCode());
+  }
+
+  void Add(long hash) {
+    // Derive the hash functions from the two halves of the hash, i.e. double hashing.
+    long h1 = hash & 0xFFFFFFFFL;
+    long h2 = hash >>> 32;
+    for (int i = 0; i < kNumHashes; i++) {
+      long bit = (h1 + i * h2) % num_bits_;
+      bits_[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  boolean MightContain(long hash) {
+    long h1 = hash & 0xFFFFFFFFL;
+    long h2 = hash >>> 32;
+    for (int i = 0; i < kNumHashes; i++) {
+      long bit = (h1 + i * h2) % num_bits_;
+      if ((bits_[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Finalizer of MurmurHash3 spreading the bits of the key over the 64-bit hash.
+  private static long Mix(long key) {
+    long h = key;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
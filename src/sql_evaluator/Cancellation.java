@@ -0,0 +1,35 @@
+package sql_evaluator;
+
+/**
+ * Flag for cooperatively cancelling the evaluation of a query.
+ *
+ * Long running loops call Check() periodically, which throws once the evaluation has been
+ * cancelled, e.g. by QueryScheduler on exceeding the timeout.
+ */
+final class Cancellation {
+  // Number of iterations between the checks in the loops over the rows.
+  static final int kCheckInterval = 4096;
+
+  static final class CancelledException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    CancelledException() {
+      super("query cancelled");
+    }
+  }
+
+  private volatile boolean cancelled_ = false;
+
+  void Cancel() {
+    cancelled_ = true;
+  }
+
+  /**
+   * Throws CancelledException in case the evaluation has been cancelled.
+   */
+  void Check() {
+    if (cancelled_) {
+      throw new CancelledException();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package sql_evaluator;
+
+import java.util.List;
+
+/**
+ * Lazily enumerates the cross product of the tables in the "from" clause.
+ *
+ * Instead of materializing A x B x C..., the cross product keeps one row index per table
+ * and advances them like an odometer: the last table varies fastest, so the rows are
+ * visited in the same order as the nested loops over the tables would visit them.
+ * This lets the caller stop as soon as it has seen enough rows.
+ */
+class CrossProduct {
+  private final TableStorage[] tables_;
+  // Range of rows [start, end) enumerated from each of the tables.
+  private final int[] start_rows_;
+  private final int[] end_rows_;
+  // Row indices enumerated from each of the tables, in ascending order, instead of the
+  // range of rows. null for the tables enumerating the range.
+  private final int[][] selections_;
+  // Current position in 'selections_' for the tables with a selection.
+  private final int[] cursors_;
+  // Current row index in each of the tables.
+  private final int[] row_idxs_;
+  // Whether Next() has been called at least once.
+  private boolean started_ = false;
+  // Whether all the combinations have been visited.
+  private boolean exhausted_ = false;
+
+  /**
+   * @param tables tables to be multiplied, in the order of the "from" clause.
+   */
+  CrossProduct(List<Table> tables) {
+    this(tables, new int[tables.size()], null);
+  }
+
+  /**
+   * @param tables tables to be multiplied, in the order of the "from" clause.
+   * @param start_rows first row to be enumerated from each of the tables.
+   * @param end_rows row after the last row to be enumerated from each of the tables,
+   *                 null to enumerate all the rows present in the tables at the time
+   *                 of construction.
+   */
+  CrossProduct(List<Table> tables, int[] start_rows, int[] end_rows) {
+    tables_ = new TableStorage[tables.size()];
+    for (int pos = 0; pos < tables_.length; pos++) {
+      tables_[pos] = tables.get(pos).storage;
+    }
+    if (end_rows == null) {
+      end_rows = new int[tables_.length];
+      for (int pos = 0; pos < tables_.length; pos++) {
+        end_rows[pos] = tables_[pos].NumRows();
+      }
+    }
+    assert start_rows.length == tables_.length && end_rows.length == tables_.length;
+    start_rows_ = start_rows;
+    end_rows_ = end_rows;
+    row_idxs_ = start_rows.clone();
+    selections_ = new int[tables_.length][];
+    cursors_ = new int[tables_.length];
+  }
+
+  /**
+   * Restricts the rows enumerated from the table at position 'table_pos' to 'rows',
+   * which must be in ascending order to preserve the order of the cross product.
+   * Must be called before Next().
+   */
+  void RestrictRows(int table_pos, int[] rows) {
+    assert !started_;
+    selections_[table_pos] = rows;
+    if (rows.length > 0) {
+      row_idxs_[table_pos] = rows[0];
+    }
+  }
+
+  /**
+   * Advances to the next row of the cross product.
+   *
+   * @return false if there are no more rows.
+   */
+  boolean Next() {
+    if (exhausted_) {
+      return false;
+    }
+    if (!started_) {
+      started_ = true;
+      for (int pos = 0; pos < tables_.length; pos++) {
+        boolean empty = selections_[pos] != null ? selections_[pos].length == 0 :
+          start_rows_[pos] >= end_rows_[pos];
+        if (empty) {
+          exhausted_ = true;
+          return false;
+        }
+      }
+      return true;
+    }
+    // Increment the last table's row index and carry over to the previous tables
+    // on wrap around.
+    for (int pos = row_idxs_.length - 1; pos >= 0; pos--) {
+      int[] selection = selections_[pos];
+      if (selection == null) {
+        if (++row_idxs_[pos] < end_rows_[pos]) {
+          return true;
+        }
+        row_idxs_[pos] = start_rows_[pos];
+      } else {
+        if (++cursors_[pos] < selection.length) {
+          row_idxs_[pos] = selection[cursors_[pos]];
+          return true;
+        }
+        cursors_[pos] = 0;
+        row_idxs_[pos] = selection[0];
+      }
+    }
+    // All the indices wrapped around, so every combination has been visited.
+    exhausted_ = true;
+    return false;
+  }
+
+  /**
+   * Returns the storage of each of the tables, in the order of the "from" clause.
+   */
+  TableStorage[] GetTables() {
+    return tables_;
+  }
+
+  /**
+   * Returns the current row index in each of the tables, in the order of the "from" clause.
+   * The returned array is updated in place by Next().
+   */
+  int[] GetRowIdxs() {
+    return row_idxs_;
+  }
+}
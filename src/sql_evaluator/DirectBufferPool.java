@@ -0,0 +1,43 @@
+package sql_evaluator;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of the direct buffers used by ReadAheadInputStream and AsyncOutputStream.
+ *
+ * Allocating a direct buffer zeroes its memory, which dominates the cost of loading a
+ * small table or writing a small result, so the buffers of closed streams are kept for
+ * the next streams instead of being left to the garbage collector.
+ */
+final class DirectBufferPool {
+  static final int kBufferSize = 1 << 20;
+  // Maximum number of free buffers kept in the pool.
+  private static final int kMaxFreeBuffers = 64;
+
+  private static final BlockingQueue<ByteBuffer> free_ =
+    new ArrayBlockingQueue<>(kMaxFreeBuffers);
+
+  private DirectBufferPool() {}
+
+  /**
+   * Returns a cleared buffer of kBufferSize bytes.
+   */
+  static ByteBuffer Take() {
+    ByteBuffer buf = free_.poll();
+    if (buf == null) {
+      return ByteBuffer.allocateDirect(kBufferSize);
+    }
+    buf.clear();
+    return buf;
+  }
+
+  /**
+   * Returns the buffer to the pool. The buffer must not be used afterwards.
+   */
+  static void Release(ByteBuffer buf) {
+    // Drops the buffer in case the pool is full.
+    free_.offer(buf);
+  }
+}
@@ -0,0 +1,276 @@
+package sql_evaluator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import sql_evaluator.QueryEvaluator.ResolvedCondition;
+import sql_evaluator.QueryEvaluator.ResolvedTerm;
+
+/**
+ * Compiles the where clause into a generated RowFilter class.
+ *
+ * The generated class evaluates all the conditions inline with the column indices and
+ * literals as constants, e.g. for "WHERE t.a > 5 AND t.b = u.c":
+ *
+ *   TableStorage t0 = tables[0];
+ *   int i0 = row_idxs[0];
+ *   TableStorage t1 = tables[1];
+ *   int i1 = row_idxs[1];
+ *   return t0.GetInt(i0, 0) > 5 &&
+ *     t0.CompareStrings(i0, 1, t1, i1, 2) == 0;
+ *
+ * This way the JIT sees straight-line int/str comparisons instead of the generic
+ * switch on the operator in QueryEvaluator.EvaluateConditions(). Like the interpreted filter,
+ * cells are compared through the typed TableStorage accessors without boxing.
+ *
+ * Source is compiled with the system Java compiler, so compilation is only possible
+ * when running on a JDK. Compile() returns null in case the filter can't be generated
+ * and the caller is expected to fall back to the interpreted filter.
+ */
+final class FilterCompiler {
+  private static final String kPackageName = "sql_evaluator.gen";
+  private static final String kClassName = "CompiledFilter";
+  // Compilation takes orders of magnitude longer than evaluating a small query,
+  // hence cache the compiled filters keyed by the generated source so that recurring
+  // queries only pay the cost once. Cache is simply reset once it's full.
+  private static final int kMaxCachedFilters = 256;
+  private static final ConcurrentHashMap<String, RowFilter> cache_ = new ConcurrentHashMap<>();
+
+  private FilterCompiler() {}
+
+  /**
+   * Returns the compiled filter for the resolved where clause 'conds' or null if
+   * the filter couldn't be compiled.
+   */
+  static RowFilter Compile(List<ResolvedCondition> conds) {
+    String source = GenerateSource(conds);
+    RowFilter filter = cache_.get(source);
+    if (filter != null) {
+      return filter;
+    }
+    try {
+      filter = CompileSource(source);
+    } catch (Exception | LinkageError e) {
+      return null;
+    }
+    if (filter == null) {
+      return null;
+    }
+    if (cache_.size() >= kMaxCachedFilters) {
+      cache_.clear();
+    }
+    RowFilter prev_filter = cache_.putIfAbsent(source, filter);
+    return prev_filter != null ? prev_filter : filter;
+  }
+
+  // Generates the source code of the filter class for the supplied where clause.
+  static String GenerateSource(List<ResolvedCondition> conds) {
+    // Only fetch the row indices of the tables referenced in the where clause.
+    TreeSet<Integer> table_positions = new TreeSet<>();
+    for (ResolvedCondition cond : conds) {
+      for (ResolvedTerm term : Arrays.asList(cond.left, cond.right)) {
+        if (!term.is_literal) {
+          table_positions.add(term.table_pos);
+        }
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("package ").append(kPackageName).append(";\n\n");
+    sb.append("public final class ").append(kClassName)
+      .append(" implements sql_evaluator.RowFilter {\n");
+    sb.append("  @Override\n");
+    sb.append("  public boolean Test(sql_evaluator.TableStorage[] tables, int[] row_idxs) {\n");
+    for (int table_pos : table_positions) {
+      sb.append("    sql_evaluator.TableStorage t").append(table_pos)
+        .append(" = tables[").append(table_pos).append("];\n");
+      sb.append("    int i").append(table_pos)
+        .append(" = row_idxs[").append(table_pos).append("];\n");
+    }
+    sb.append("    return ");
+    if (conds.isEmpty()) {
+      sb.append("true");
+    }
+    for (int i = 0; i < conds.size(); i++) {
+      ResolvedCondition cond = conds.get(i);
+      if (i > 0) {
+        sb.append(" &&\n      ");
+      }
+      String op = Operator(cond.op);
+      if (cond.left.type == SqlType.INT) {
+        sb.append(IntTermExpr(cond.left)).append(' ').append(op).append(' ')
+          .append(IntTermExpr(cond.right));
+      } else if (cond.left.is_literal && !cond.right.is_literal) {
+        // Compare the column with the literal and flip the comparison around.
+        sb.append("0 ").append(op).append(' ')
+          .append(CompareStringsExpr(cond.right, cond.left));
+      } else {
+        sb.append(CompareStringsExpr(cond.left, cond.right)).append(' ').append(op)
+          .append(" 0");
+      }
+    }
+    sb.append(";\n");
+    sb.append("  }\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private static String Operator(Condition.Op op) {
+    switch (op) {
+      case EQ:
+        return "==";
+      case NE:
+        return "!=";
+      case LT:
+      case LE:
+      case GT:
+      case GE:
+        return op.symbol;
+      default:
+        throw new AssertionError("unhandled Op: " + op);
+    }
+  }
+
+  // Java expression evaluating to the value of the int term.
+  private static String IntTermExpr(ResolvedTerm term) {
+    if (term.is_literal) {
+      return "(" + term.int_literal + ")";
+    }
+    return "t" + term.table_pos + ".GetInt(i" + term.table_pos + ", " + term.col_idx + ")";
+  }
+
+  // Java expression comparing the str terms, where 'left' is a column unless both
+  // the terms are literals.
+  private static String CompareStringsExpr(ResolvedTerm left, ResolvedTerm right) {
+    if (left.is_literal) {
+      assert right.is_literal;
+      return StringLiteral(left.str_literal) + ".compareTo(" +
+        StringLiteral(right.str_literal) + ")";
+    }
+    String expr = "t" + left.table_pos + ".Compare";
+    if (right.is_literal) {
+      return expr + "String(i" + left.table_pos + ", " + left.col_idx + ", " +
+        StringLiteral(right.str_literal) + ")";
+    }
+    return expr + "Strings(i" + left.table_pos + ", " + left.col_idx + ", t" +
+      right.table_pos + ", i" + right.table_pos + ", " + right.col_idx + ")";
+  }
+
+  private static String StringLiteral(String value) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c == '\n') {
+        sb.append("\\n");
+      } else if (c == '\r') {
+        sb.append("\\r");
+      } else if (c < 0x20 || c >= 0x7f) {
+        // Unicode escapes are translated before lexing, so line terminators and quotes
+        // must not be escaped this way. Those are handled above.
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  // Compiles the source in memory and instantiates the filter class. Returns null in case
+  // there is no compiler available or the compilation fails.
+  private static RowFilter CompileSource(String source) throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      return null;
+    }
+    byte[] class_bytes;
+    try (ClassFileManager file_manager =
+           new ClassFileManager(compiler.getStandardFileManager(null, null, null))) {
+      List<String> options = Arrays.asList(
+        "-classpath", System.getProperty("java.class.path"), "-g:none", "-proc:none");
+      // Swallow the diagnostics, failure results in falling back to the interpreted filter.
+      StringWriter diagnostics = new StringWriter();
+      JavaCompiler.CompilationTask task = compiler.getTask(diagnostics, file_manager, null,
+        options, null, Collections.singletonList(new SourceFile(source)));
+      if (!task.call()) {
+        return null;
+      }
+      class_bytes = file_manager.class_bytes_.toByteArray();
+    }
+    GeneratedClassLoader loader =
+      new GeneratedClassLoader(RowFilter.class.getClassLoader(), class_bytes);
+    Class<?> cls = loader.loadClass(kPackageName + "." + kClassName);
+    return (RowFilter) cls.getDeclaredConstructor().newInstance();
+  }
+
+  private static class SourceFile extends SimpleJavaFileObject {
+    private final String source_;
+    SourceFile(String source) {
+      super(URI.create("string:///" + kPackageName.replace('.', '/') + "/" + kClassName +
+        Kind.SOURCE.extension), Kind.SOURCE);
+      source_ = source;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignore_encoding_errors) {
+      return source_;
+    }
+  }
+
+  // File manager that captures the output class file in memory.
+  private static class ClassFileManager
+    extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final ByteArrayOutputStream class_bytes_ = new ByteArrayOutputStream();
+
+    ClassFileManager(StandardJavaFileManager file_manager) {
+      super(file_manager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location,
+                                               String class_name, JavaFileObject.Kind kind,
+                                               FileObject sibling) {
+      return new SimpleJavaFileObject(URI.create("mem:///" + class_name.replace('.', '/') +
+        kind.extension), kind) {
+        @Override
+        public OutputStream openOutputStream() {
+          return class_bytes_;
+        }
+      };
+    }
+  }
+
+  private static class GeneratedClassLoader extends ClassLoader {
+    private final byte[] class_bytes_;
+
+    GeneratedClassLoader(ClassLoader parent, byte[] class_bytes) {
+      super(parent);
+      class_bytes_ = class_bytes;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      if (!name.equals(kPackageName + "." + kClassName)) {
+        throw new ClassNotFoundException(name);
+      }
+      return defineClass(name, class_bytes_, 0, class_bytes_.length);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package sql_evaluator;
+
+import java.util.ArrayList;
+
+/**
+ * Table storage backed by the rows as loaded by Table.Deserializer, i.e. a list of rows
+ * with each cell as a String or Integer object.
+ */
+public final class HeapTableStorage implements TableStorage {
+  private final ArrayList<ArrayList<Object>> rows_;
+
+  public HeapTableStorage(ArrayList<ArrayList<Object>> rows) {
+    rows_ = rows;
+  }
+
+  @Override
+  public int NumRows() {
+    return rows_.size();
+  }
+
+  @Override
+  public Object GetValue(int row, int col) {
+    return rows_.get(row).get(col);
+  }
+
+  @Override
+  public int GetInt(int row, int col) {
+    return (Integer) rows_.get(row).get(col);
+  }
+
+  @Override
+  public String GetString(int row, int col) {
+    return (String) rows_.get(row).get(col);
+  }
+
+  @Override
+  public int CompareString(int row, int col, String value) {
+    return GetString(row, col).compareTo(value);
+  }
+
+  @Override
+  public int CompareStrings(int row, int col, TableStorage other, int other_row,
+                            int other_col) {
+    // Let the other storage compare with the String we already have.
+    return -other.CompareString(other_row, other_col, GetString(row, col));
+  }
+}
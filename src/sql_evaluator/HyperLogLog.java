@@ -0,0 +1,50 @@
+package sql_evaluator;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct values from their hashes, in a
+ * fixed 4KB regardless of the number of values. The standard error is ~1.6%.
+ *
+ * Each value is assigned to a register by the top bits of its hash, and the register
+ * keeps the maximum position of the first set bit in the rest of the hash seen so far.
+ */
+final class HyperLogLog {
+  // Number of hash bits selecting the register.
+  private static final int kPrecision = 12;
+  private static final int kNumRegisters = 1 << kPrecision;
+
+  private final byte[] registers_ = new byte[kNumRegisters];
+
+  /**
+   * @param hash 64-bit hash of the value, e.g. from BloomFilter.Hash().
+   */
+  void Add(long hash) {
+    int idx = (int) (hash >>> (64 - kPrecision));
+    // Guard bit so that the rank is at most 64 - kPrecision + 1.
+    long rest = (hash << kPrecision) | (1L << (kPrecision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (rank > registers_[idx]) {
+      registers_[idx] = rank;
+    }
+  }
+
+  /**
+   * Returns the estimated number of distinct values added.
+   */
+  long Estimate() {
+    double sum = 0;
+    int num_zero_registers = 0;
+    for (byte rank : registers_) {
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) {
+        num_zero_registers++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / kNumRegisters);
+    double estimate = alpha * kNumRegisters * kNumRegisters / sum;
+    // Linear counting is more accurate for small cardinalities.
+    if (estimate <= 2.5 * kNumRegisters && num_zero_registers > 0) {
+      estimate = kNumRegisters * Math.log((double) kNumRegisters / num_zero_registers);
+    }
+    return Math.round(estimate);
+  }
+}
@@ -0,0 +1,40 @@
+package sql_evaluator;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of ints, e.g. of row indices, without boxing them.
+ */
+final class IntList {
+  private int[] values_;
+  private int size_ = 0;
+
+  /**
+   * @param initial_capacity number of values the list holds before growing, at least 1.
+   */
+  IntList(int initial_capacity) {
+    values_ = new int[initial_capacity];
+  }
+
+  void Add(int value) {
+    if (size_ == values_.length) {
+      values_ = Arrays.copyOf(values_, 2 * size_);
+    }
+    values_[size_++] = value;
+  }
+
+  int Size() {
+    return size_;
+  }
+
+  int Get(int i) {
+    return values_[i];
+  }
+
+  /**
+   * Returns a copy of the values as an array.
+   */
+  int[] ToArray() {
+    return Arrays.copyOf(values_, size_);
+  }
+}
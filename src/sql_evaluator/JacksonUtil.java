@@ -4,12 +4,19 @@ import com.fasterxml.jackson.core.*;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.ContextAttributes;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 public final class JacksonUtil {
     private static final JsonFactory jsonFactory = new JsonFactory()
@@ -86,12 +93,49 @@ public final class JacksonUtil {
     }
 
     public static <T> T readFromFile(String path, Class<T> cls) throws IOException {
-        JsonParser jp = objectMapper.getFactory().createParser(new File(path));
-        T value = objectMapper.readValue(jp, cls);
-        if (jp.nextToken() != null) {
-            throw new JsonParseException(jp, "found unexpected data after entire value was parsed");
+        return readFromFile(path, cls, Collections.emptyMap());
+    }
+
+    /**
+     * Like {@link #readFromFile(String, Class) readFromFile()}, except with context attributes
+     * available to the deserializers, e.g. {@link Table#OFF_HEAP_ATTRIBUTE}.
+     */
+    public static <T> T readFromFile(String path, Class<T> cls, Map<?, ?> attributes) throws IOException {
+        try (JsonParser jp = objectMapper.getFactory().createParser(openFile(path))) {
+            T value = objectMapper.readerFor(cls)
+                    .with(ContextAttributes.getEmpty().withSharedAttributes(attributes))
+                    .readValue(jp);
+            if (jp.nextToken() != null) {
+                throw new JsonParseException(jp, "found unexpected data after entire value was parsed");
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Returns a parser over the file, for reading it incrementally instead of as a whole value.
+     * See {@link #openFile(String) openFile()}.
+     */
+    public static JsonParser createParser(String path) throws IOException {
+        return objectMapper.getFactory().createParser(openFile(path));
+    }
+
+    /**
+     * Opens the file to be read ahead on a separate thread while the caller consumes it.
+     * Gzip compressed files, with a ".gz" extension, are decompressed on another thread,
+     * so that reading, decompressing and parsing all overlap.
+     */
+    public static InputStream openFile(String path) throws IOException {
+        InputStream in = new ReadAheadInputStream(FileChannel.open(Paths.get(path)));
+        if (path.endsWith(".gz")) {
+            try {
+                in = new ReadAheadInputStream(Channels.newChannel(new GZIPInputStream(in, 1 << 16)));
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
         }
-        return value;
+        return in;
     }
 
     // The DefaultPrettyPrinter renders empty arrays and objects with a space: "[ ]" and "{ }".
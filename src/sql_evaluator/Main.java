@@ -1,19 +1,44 @@
 package sql_evaluator;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 
 import java.io.IOException;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public final class Main {
     public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("--analyze")) {
+            analyze(args[1], Arrays.copyOfRange(args, 2, args.length));
+            return;
+        }
+        if (args.length == 5 && args[0].equals("--shard")) {
+            evaluateShard(new int[] {Integer.parseInt(args[1]), Integer.parseInt(args[2])}, args[3], args[4]);
+            return;
+        }
         if (args.length != 3) {
             System.err.println("Usage: COMMAND <table-folder> <sql-json-file> <output-file>");
+            System.err.println("       COMMAND --analyze <table-folder> <table-name>...");
+            System.err.println("       COMMAND --shard <start-row> <end-row> <table-folder> <sql-json-file>");
             System.exit(1); return;
         }
 
@@ -21,50 +46,239 @@ public final class Main {
         String sqlJsonFile = args[1];
         String outputFile = args[2];
 
-        Query query;
+        Query query = readQuery(sqlJsonFile);
+
+        // Single table queries without a where clause are evaluated while reading the table,
+        // see StreamingProjection.
+        if (StreamingProjection.Applies(query)) {
+            String tableSourcePath = tablePath(tableFolder, query.from.get(0).source);
+            try (JsonParser jp = JacksonUtil.createParser(tableSourcePath);
+                 PrintWriter out = openOutput(outputFile)) {
+                StreamingProjection.Evaluate(query, jp, out);
+            } catch (JsonProcessingException ex) {
+                // The rows before the malformed one have been written already.
+                System.err.println("Error loading \"" + tableSourcePath + "\" as table JSON: " + ex.getMessage());
+                Files.deleteIfExists(Paths.get(outputFile));
+                System.exit(1); return;
+            }
+            return;
+        }
+
+        // With "sql_evaluator.shards" greater than 1, the query is evaluated by that many worker
+        // processes, see ShardCoordinator.
+        int numShards = Integer.getInteger("sql_evaluator.shards", 1);
+        if (numShards > 1) {
+            evaluateSharded(tableFolder, sqlJsonFile, query, numShards, outputFile);
+            return;
+        }
+
+        Map<String, Table> table_name_map = loadTables(tableFolder, query, null);
+        try (PrintWriter out = openOutput(outputFile)) {
+            evaluate(query, table_name_map, out);
+        }
+    }
+
+    private static Query readQuery(String sqlJsonFile) throws IOException {
         try {
-            query = JacksonUtil.readFromFile(sqlJsonFile, Query.class);
+            return JacksonUtil.readFromFile(sqlJsonFile, Query.class);
         } catch (JsonProcessingException ex) {
             System.err.println("Error loading \"" + sqlJsonFile + "\" as query JSON: " + ex.getMessage());
-            System.exit(1); return;
+            System.exit(1); return null;
         }
+    }
 
-        // Starter code effectively validating the from clause. Only minor updates.
-        // Mapping of table name, possibly aliased, to the corresponding table.
-        // Using 'LinkedHashMap' to preserve the order of tables in the from clause while
-        // computing cross product and also helps map the expected order of tables in
-        // case of errors.
+    // Starter code effectively validating the from clause. Only minor updates.
+    // Returns the mapping of table name, possibly aliased, to the corresponding table.
+    // Using 'LinkedHashMap' to preserve the order of tables in the from clause while
+    // computing cross product and also helps map the expected order of tables in
+    // case of errors.
+    // Tables listed in the "sql_evaluator.off_heap_tables" system property, or all the tables
+    // if it's "*", are loaded outside the Java heap. See OffHeapTableStorage.
+    // Only the columns referenced by the query are loaded, unless statistics of all the columns
+    // may need to be collected.
+    // Statistics of the tables analyzed earlier are loaded for the planner. With
+    // "sql_evaluator.collect_stats", the missing or outdated statistics are computed and saved.
+    // With 'rowRange', only that range of rows of the first table is loaded, and no statistics
+    // are collected since they'd only describe the range.
+    // Also used by the benchmarks, see Benchmarks.
+    static Map<String, Table> loadTables(String tableFolder, Query query, int[] rowRange)
+            throws IOException {
+        Set<String> offHeapTables = new HashSet<>(Arrays.asList(
+                System.getProperty("sql_evaluator.off_heap_tables", "").split(",")));
+        boolean collectStats = rowRange == null && Boolean.getBoolean("sql_evaluator.collect_stats");
         Map<String, Table> table_name_map = new LinkedHashMap<>();
         for (TableDecl tableDecl : query.from) {
-            String tableSourcePath = tableFolder + File.separator + (tableDecl.source + ".table.json");
+            String tableSourcePath = tablePath(tableFolder, tableDecl.source);
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put(Table.OFF_HEAP_ATTRIBUTE,
+                    offHeapTables.contains("*") || offHeapTables.contains(tableDecl.source));
+            if (!collectStats) {
+                attributes.put(Table.REFERENCED_COLUMNS_ATTRIBUTE,
+                        QueryEvaluator.GetReferencedColumns(query, tableDecl.name));
+            }
+            if (rowRange != null && table_name_map.isEmpty()) {
+                attributes.put(Table.ROW_RANGE_ATTRIBUTE, rowRange);
+            }
             Table table;
             try {
-                table = JacksonUtil.readFromFile(tableSourcePath, Table.class);
+                table = JacksonUtil.readFromFile(tableSourcePath, Table.class, attributes);
             } catch (JsonProcessingException ex) {
                 System.err.println("Error loading \"" + tableSourcePath + "\" as table JSON: " + ex.getMessage());
-                System.exit(1); return;
+                System.exit(1); return null;
+            }
+            String statsPath = statsPath(tableFolder, tableDecl.source);
+            table.stats = loadStats(statsPath, tableSourcePath, table);
+            if (table.stats == null && collectStats) {
+                table.stats = TableStats.Compute(table);
+                writeStats(statsPath, table.stats);
             }
             assert table_name_map.get(tableDecl.name) == null;
             table_name_map.put(tableDecl.name, table);
         }
+        return table_name_map;
+    }
+
+    private static void evaluate(Query query, Map<String, Table> table_name_map, PrintWriter out)
+            throws IOException {
+        QueryEvaluator qe = new QueryEvaluator(query, out, table_name_map);
+        qe.SetCompileFilter(Boolean.getBoolean("sql_evaluator.compile_filter"));
+        qe.SetJoinMemoryBudget(Long.getLong("sql_evaluator.join_memory_budget", 0),
+                new File(System.getProperty("java.io.tmpdir")));
+        qe.Evaluate();
+    }
 
-        try (PrintWriter out = new PrintWriter(outputFile)) {
-            QueryEvaluator qe = new QueryEvaluator(query, out, table_name_map);
-            qe.Evaluate();
+    // Worker of ShardCoordinator evaluating the query over the range of rows of the first table
+    // and writing the result to stdout in UTF-8.
+    private static void evaluateShard(int[] rowRange, String tableFolder, String sqlJsonFile)
+            throws IOException {
+        Query query = readQuery(sqlJsonFile);
+        Map<String, Table> table_name_map = loadTables(tableFolder, query, rowRange);
+        FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new AsyncOutputStream(stdout), StandardCharsets.UTF_8))) {
+            evaluate(query, table_name_map, out);
         }
     }
 
-    public static void writeTable(Writer out, Table table) throws IOException {
-        out.write("[\n");
+    // Reads only the columns of the tables, and counts the rows of the first one to split it
+    // into shards, leaving the evaluation to the workers.
+    private static void evaluateSharded(String tableFolder, String sqlJsonFile, Query query,
+                                        int numShards, String outputFile) throws IOException {
+        Map<String, Table> table_name_map = new LinkedHashMap<>();
+        int numRows = 0;
+        for (TableDecl tableDecl : query.from) {
+            String tableSourcePath = tablePath(tableFolder, tableDecl.source);
+            try (JsonParser jp = JacksonUtil.createParser(tableSourcePath)) {
+                jp.nextToken();
+                Table header = new Table(Table.Deserializer.readColumns(jp), new ArrayList<>());
+                // The rows are checked without materializing their cells, so a malformed table
+                // fails here like in a single process rather than in a worker.
+                boolean[] referenced = new boolean[header.columns.size()];
+                ArrayList<Object> cells = new ArrayList<>(header.columns.size());
+                int tableRows = 0;
+                while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
+                    cells.clear();
+                    Table.Deserializer.readRow(jp, header.columns, referenced, cells);
+                    tableRows++;
+                }
+                if (table_name_map.isEmpty()) {
+                    numRows = tableRows;
+                }
+                assert table_name_map.get(tableDecl.name) == null;
+                table_name_map.put(tableDecl.name, header);
+            } catch (JsonProcessingException ex) {
+                System.err.println("Error loading \"" + tableSourcePath + "\" as table JSON: " + ex.getMessage());
+                System.exit(1); return;
+            }
+        }
+        try (PrintWriter out = openOutput(outputFile)) {
+            ShardCoordinator.Evaluate(query, table_name_map, numRows, numShards,
+                    Arrays.asList(tableFolder, sqlJsonFile), out);
+        } catch (IOException ex) {
+            // Either a shard failed, after the worker printed its error, or writing the output
+            // failed. The message tells which, the partial result is discarded.
+            System.err.println("Error evaluating \"" + sqlJsonFile + "\" in " + numShards + " shards into \""
+                    + outputFile + "\": " + ex.getMessage());
+            Files.deleteIfExists(Paths.get(outputFile));
+            System.exit(1); return;
+        }
+    }
+
+    // Output is written to the file on a separate thread while it's being serialized.
+    private static PrintWriter openOutput(String outputFile) throws IOException {
+        FileChannel outputChannel = FileChannel.open(Paths.get(outputFile),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new PrintWriter(new OutputStreamWriter(
+                new AsyncOutputStream(outputChannel), Charset.defaultCharset()));
+    }
+
+    // Computes the statistics of the tables and saves them next to the table files.
+    private static void analyze(String tableFolder, String[] tableNames) throws IOException {
+        for (String tableName : tableNames) {
+            String tableSourcePath = tablePath(tableFolder, tableName);
+            Table table;
+            try {
+                table = JacksonUtil.readFromFile(tableSourcePath, Table.class);
+            } catch (JsonProcessingException ex) {
+                System.err.println("Error loading \"" + tableSourcePath + "\" as table JSON: " + ex.getMessage());
+                System.exit(1); return;
+            }
+            writeStats(statsPath(tableFolder, tableName), TableStats.Compute(table));
+        }
+    }
+
+    static String tablePath(String tableFolder, String tableName) {
+        String path = tableFolder + File.separator + (tableName + ".table.json");
+        // Fall back to the gzip compressed table in case there is no uncompressed one.
+        if (!new File(path).exists() && new File(path + ".gz").exists()) {
+            path += ".gz";
+        }
+        return path;
+    }
 
-        out.write("    ");
-        JacksonUtil.write(out, table.columns);
+    private static String statsPath(String tableFolder, String tableName) {
+        return tableFolder + File.separator + (tableName + ".stats.json");
+    }
 
-        for (List<Object> row : table.rows) {
-            out.write(",\n    ");
-            JacksonUtil.write(out, row);
+    // Returns the statistics saved for the table, null if there are none or they're older
+    // than the table file or don't match the loaded table.
+    private static TableStats loadStats(String statsPath, String tableSourcePath, Table table)
+            throws IOException {
+        File statsFile = new File(statsPath);
+        if (!statsFile.exists() || statsFile.lastModified() < new File(tableSourcePath).lastModified()) {
+            return null;
+        }
+        TableStats stats;
+        try {
+            stats = JacksonUtil.readFromFile(statsPath, TableStats.class);
+        } catch (JsonProcessingException ex) {
+            System.err.println("Ignoring \"" + statsPath + "\": " + ex.getMessage());
+            return null;
         }
+        return stats.Matches(table) ? stats : null;
+    }
+
+    private static void writeStats(String statsPath, TableStats stats) throws IOException {
+        try (Writer out = Files.newBufferedWriter(Paths.get(statsPath), StandardCharsets.UTF_8)) {
+            JacksonUtil.writeIndented(out, stats);
+        }
+    }
 
-        out.write("\n]\n");
+    public static void writeTable(Writer out, Table table) throws IOException {
+        // Same output as writing the columns and each of the rows with JacksonUtil.write().
+        ResultWriter writer = new ResultWriter(out, table.columns);
+        int numColumns = table.columns.size();
+        for (int row = 0; row < table.storage.NumRows(); row++) {
+            writer.BeginRow();
+            for (int col = 0; col < numColumns; col++) {
+                if (table.columns.get(col).type == SqlType.INT) {
+                    writer.WriteInt(table.storage.GetInt(row, col));
+                } else {
+                    writer.WriteString(table.storage.GetString(row, col));
+                }
+            }
+            writer.EndRow();
+        }
+        writer.Finish();
     }
 }
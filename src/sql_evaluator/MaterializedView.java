@@ -0,0 +1,135 @@
+package sql_evaluator;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import sql_evaluator.Table.ColumnDef;
+
+/**
+ * Standing view of a query whose result is maintained incrementally as rows are appended
+ * to the tables in the "from" clause.
+ *
+ * Appending rows dR to table R in R x S x T only adds the rows of dR x S x T to the result,
+ * so only those are evaluated instead of re-running the whole query. In case the same
+ * table appears more than once in the "from" clause, e.g. R x R, the new rows are the
+ * union of the disjoint dR x R_old and R_new x dR.
+ *
+ * Rows of the result are in the order they're produced, i.e. rows produced by an append
+ * come after all the earlier rows.
+ */
+public class MaterializedView {
+  private final QueryEvaluator evaluator_;
+  private final Map<String, Table> table_name_map_;
+  private ArrayList<ArrayList<Object>> result_rows_;
+
+  /**
+   * MaterializedView constructor.
+   *
+   * @param query the query defining the view
+   * @param out location to print errors in the query
+   * @param table_name_map map of the table alias name from the "from" clause to the
+   *                       corresponding Table.
+   */
+  public MaterializedView(Query query, PrintWriter out, Map<String, Table> table_name_map) {
+    evaluator_ = new QueryEvaluator(query, out, table_name_map);
+    table_name_map_ = table_name_map;
+  }
+
+  /**
+   * Validates the query and computes the initial result of the view.
+   * In case of any error, the error is printed to the supplied output.
+   *
+   * @return  Whether the query is valid.
+   */
+  public boolean Initialize() {
+    if (!evaluator_.Prepare()) {
+      return false;
+    }
+    result_rows_ = new ArrayList<>();
+    evaluator_.FilterAndProjectRows(new CrossProduct(evaluator_.GetTables()), result_rows_);
+    return true;
+  }
+
+  /**
+   * Returns the current result of the view. Must be called after Initialize().
+   */
+  public Table GetResult() {
+    return new Table(evaluator_.GetResultColumns(), result_rows_);
+  }
+
+  /**
+   * Appends 'new_rows' to the table 'table_name', as possibly aliased in the "from" clause,
+   * and appends the resulting new rows to the result of the view. Must be called after
+   * Initialize().
+   *
+   * @param new_rows rows to append, with each value either a String or Integer object
+   *                 matching the type of the column.
+   * @return  Number of rows added to the result.
+   */
+  public int Append(String table_name, List<ArrayList<Object>> new_rows) {
+    Table table = table_name_map_.get(table_name);
+    if (table == null) {
+      throw new IllegalArgumentException("unknown table name \"" + table_name + "\"");
+    }
+    if (table.rows == null) {
+      throw new IllegalArgumentException("table \"" + table_name +
+        "\" is stored off-heap, only tables stored on the heap can be appended to");
+    }
+    for (ArrayList<Object> row : new_rows) {
+      CheckRow(table.columns, row);
+    }
+
+    int old_num_rows = table.rows.size();
+    table.rows.addAll(new_rows);
+    int new_num_rows = table.rows.size();
+    int old_num_result_rows = result_rows_.size();
+
+    // The table may appear multiple times in the "from" clause. For the i-th occurrence,
+    // enumerate only the new rows at its position, only the old rows at the earlier
+    // positions of the table and all the rows at later positions and for other tables.
+    // This enumerates each of the new combinations exactly once.
+    ArrayList<Table> tables = evaluator_.GetTables();
+    for (int delta_pos = 0; delta_pos < tables.size(); delta_pos++) {
+      if (tables.get(delta_pos) != table) {
+        continue;
+      }
+      int[] start_rows = new int[tables.size()];
+      int[] end_rows = new int[tables.size()];
+      for (int pos = 0; pos < tables.size(); pos++) {
+        end_rows[pos] = tables.get(pos).storage.NumRows();
+        if (tables.get(pos) == table) {
+          if (pos < delta_pos) {
+            end_rows[pos] = old_num_rows;
+          } else if (pos == delta_pos) {
+            start_rows[pos] = old_num_rows;
+            end_rows[pos] = new_num_rows;
+          }
+        }
+      }
+      evaluator_.FilterAndProjectRows(new CrossProduct(tables, start_rows, end_rows),
+        result_rows_);
+    }
+    return result_rows_.size() - old_num_result_rows;
+  }
+
+  // Checks that the row matches the columns of the table like Table.Deserializer does.
+  private static void CheckRow(ArrayList<ColumnDef> columns, ArrayList<Object> row) {
+    if (row.size() != columns.size()) {
+      throw new IllegalArgumentException("row has " + row.size() + " values, but there are " +
+        columns.size() + " columns");
+    }
+    for (int i = 0; i < columns.size(); i++) {
+      ColumnDef column_def = columns.get(i);
+      Object value = row.get(i);
+      boolean valid = column_def.type == SqlType.STR ? value instanceof String :
+        value instanceof Integer;
+      if (!valid) {
+        throw new IllegalArgumentException("invalid cell value for column \"" +
+          column_def.name + "\"; expecting " + (column_def.type == SqlType.STR ?
+          "a string" : "an integer"));
+      }
+    }
+  }
+}
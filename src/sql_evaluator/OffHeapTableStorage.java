@@ -0,0 +1,279 @@
+package sql_evaluator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import sql_evaluator.Table.ColumnDef;
+
+/**
+ * Table storage that keeps the cells outside of the Java heap in direct ByteBuffers.
+ *
+ * Large tables loaded as rows of String/Integer objects end up as millions of long-lived
+ * objects in the old generation which makes every full GC slow. Here the cells are stored
+ * column-wise instead:
+ * - "int" column: one buffer with the 4 byte values of all the rows.
+ * - "str" column: one buffer with the UTF-8 bytes of all the rows concatenated and
+ *   another buffer with the start offset of each row, plus the end offset of the last row.
+ * So a table only amounts to a handful of heap objects irrespective of the number of rows.
+ *
+ * Each column buffer is limited to 2GB.
+ */
+public final class OffHeapTableStorage implements TableStorage {
+  private final int num_rows_;
+  // For every column, index into 'int_cols_' or 'str_offsets_' and 'str_data_' depending
+  // on the type of the column.
+  private final int[] slots_;
+  private final SqlType[] types_;
+  private final ByteBuffer[] int_cols_;
+  private final ByteBuffer[] str_offsets_;
+  private final ByteBuffer[] str_data_;
+
+  private OffHeapTableStorage(int num_rows, int[] slots, SqlType[] types, ByteBuffer[] int_cols,
+                              ByteBuffer[] str_offsets, ByteBuffer[] str_data) {
+    num_rows_ = num_rows;
+    slots_ = slots;
+    types_ = types;
+    int_cols_ = int_cols;
+    str_offsets_ = str_offsets;
+    str_data_ = str_data;
+  }
+
+  @Override
+  public int NumRows() {
+    return num_rows_;
+  }
+
+  @Override
+  public Object GetValue(int row, int col) {
+    if (types_[col] == SqlType.INT) {
+      return GetInt(row, col);
+    }
+    return GetString(row, col);
+  }
+
+  @Override
+  public int GetInt(int row, int col) {
+    assert types_[col] == SqlType.INT;
+    return int_cols_[slots_[col]].getInt(row * 4);
+  }
+
+  @Override
+  public String GetString(int row, int col) {
+    assert types_[col] == SqlType.STR;
+    int slot = slots_[col];
+    int start = str_offsets_[slot].getInt(row * 4);
+    int end = str_offsets_[slot].getInt((row + 1) * 4);
+    byte[] bytes = new byte[end - start];
+    ByteBuffer data = str_data_[slot].duplicate();
+    data.position(start);
+    data.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public int CompareString(int row, int col, String value) {
+    assert types_[col] == SqlType.STR;
+    int slot = slots_[col];
+    ByteBuffer data = str_data_[slot];
+    int pos = str_offsets_[slot].getInt(row * 4);
+    int end = str_offsets_[slot].getInt((row + 1) * 4);
+    int i = 0;
+    while (pos < end && i < value.length()) {
+      int code_point = DecodeCodePoint(data, pos);
+      int other_code_point = value.codePointAt(i);
+      if (code_point != other_code_point) {
+        return CompareAsUtf16(code_point, other_code_point);
+      }
+      pos += Utf8Length(data.get(pos));
+      i += Character.charCount(code_point);
+    }
+    // One is a prefix of the other, so the longer one is greater.
+    return (pos < end ? 1 : 0) - (i < value.length() ? 1 : 0);
+  }
+
+  @Override
+  public int CompareStrings(int row, int col, TableStorage other, int other_row,
+                            int other_col) {
+    if (!(other instanceof OffHeapTableStorage)) {
+      // Fetching a String from other storage doesn't create any objects.
+      return CompareString(row, col, other.GetString(other_row, other_col));
+    }
+    assert types_[col] == SqlType.STR;
+    OffHeapTableStorage other_storage = (OffHeapTableStorage) other;
+    int slot = slots_[col];
+    ByteBuffer data = str_data_[slot];
+    int pos = str_offsets_[slot].getInt(row * 4);
+    int end = str_offsets_[slot].getInt((row + 1) * 4);
+    int other_slot = other_storage.slots_[other_col];
+    ByteBuffer other_data = other_storage.str_data_[other_slot];
+    int other_pos = other_storage.str_offsets_[other_slot].getInt(other_row * 4);
+    int other_end = other_storage.str_offsets_[other_slot].getInt((other_row + 1) * 4);
+    while (pos < end && other_pos < other_end) {
+      if (data.get(pos) != other_data.get(other_pos)) {
+        // Bytes so far are identical, so step back to the start of the code point in both
+        // and compare the differing code points.
+        while ((data.get(pos) & 0xC0) == 0x80) {
+          pos--;
+          other_pos--;
+        }
+        return CompareAsUtf16(DecodeCodePoint(data, pos),
+          DecodeCodePoint(other_data, other_pos));
+      }
+      pos++;
+      other_pos++;
+    }
+    return (pos < end ? 1 : 0) - (other_pos < other_end ? 1 : 0);
+  }
+
+  // Number of bytes of the UTF-8 encoded code point starting with 'lead_byte'.
+  private static int Utf8Length(byte lead_byte) {
+    if (lead_byte >= 0) {
+      return 1;
+    } else if ((lead_byte & 0xE0) == 0xC0) {
+      return 2;
+    } else if ((lead_byte & 0xF0) == 0xE0) {
+      return 3;
+    }
+    return 4;
+  }
+
+  private static int DecodeCodePoint(ByteBuffer data, int pos) {
+    byte lead_byte = data.get(pos);
+    int len = Utf8Length(lead_byte);
+    if (len == 1) {
+      return lead_byte;
+    }
+    int code_point = lead_byte & (0x7F >> len);
+    for (int i = 1; i < len; i++) {
+      code_point = (code_point << 6) | (data.get(pos + i) & 0x3F);
+    }
+    return code_point;
+  }
+
+  // String.compareTo() compares UTF-16 code units while UTF-8 bytes, like code points,
+  // order supplementary characters after all the BMP characters. The two orders differ
+  // when a supplementary character, encoded as a surrogate pair in UTF-16, is compared
+  // with a BMP character above the surrogates range.
+  private static int CompareAsUtf16(int code_point, int other_code_point) {
+    char unit = code_point >= Character.MIN_SUPPLEMENTARY_CODE_POINT ?
+      Character.highSurrogate(code_point) : (char) code_point;
+    char other_unit = other_code_point >= Character.MIN_SUPPLEMENTARY_CODE_POINT ?
+      Character.highSurrogate(other_code_point) : (char) other_code_point;
+    if (unit != other_unit) {
+      return unit - other_unit;
+    }
+    // Both are surrogate pairs with the same high surrogate, the low surrogates are in
+    // the code point order.
+    return code_point - other_code_point;
+  }
+
+  /**
+   * Builds the off-heap storage by appending one row at a time, so that the rows don't need
+   * to be materialized on the heap while loading a table.
+   */
+  public static final class Builder {
+    private static final int kInitialCapacity = 4096;
+
+    private final int[] slots_;
+    private final SqlType[] types_;
+    private final ByteBuffer[] int_cols_;
+    private final ByteBuffer[] str_offsets_;
+    private final ByteBuffer[] str_data_;
+    private int num_rows_ = 0;
+
+    public Builder(List<ColumnDef> columns) {
+      int num_cols = columns.size();
+      slots_ = new int[num_cols];
+      types_ = new SqlType[num_cols];
+      int num_int_cols = 0;
+      int num_str_cols = 0;
+      for (int col = 0; col < num_cols; col++) {
+        types_[col] = columns.get(col).type;
+        slots_[col] = types_[col] == SqlType.INT ? num_int_cols++ : num_str_cols++;
+      }
+      int_cols_ = new ByteBuffer[num_int_cols];
+      for (int slot = 0; slot < num_int_cols; slot++) {
+        int_cols_[slot] = Allocate(kInitialCapacity);
+      }
+      str_offsets_ = new ByteBuffer[num_str_cols];
+      str_data_ = new ByteBuffer[num_str_cols];
+      for (int slot = 0; slot < num_str_cols; slot++) {
+        str_offsets_[slot] = Allocate(kInitialCapacity).putInt(0);
+        str_data_[slot] = Allocate(kInitialCapacity);
+      }
+    }
+
+    /**
+     * Appends a row, with each value either a String or Integer object matching
+     * the type of the column.
+     */
+    public void AddRow(List<Object> row) {
+      assert row.size() == types_.length;
+      for (int col = 0; col < types_.length; col++) {
+        int slot = slots_[col];
+        // Cells of the columns pruned while loading the table are null, see
+        // Table.REFERENCED_COLUMNS_ATTRIBUTE, and stored as 0 or "".
+        Object cell = row.get(col);
+        if (types_[col] == SqlType.INT) {
+          int_cols_[slot] = Reserve(int_cols_[slot], 4);
+          int_cols_[slot].putInt(cell != null ? (Integer) cell : 0);
+        } else {
+          byte[] bytes = cell != null ? ((String) cell).getBytes(StandardCharsets.UTF_8) :
+            new byte[0];
+          str_data_[slot] = Reserve(str_data_[slot], bytes.length);
+          str_data_[slot].put(bytes);
+          str_offsets_[slot] = Reserve(str_offsets_[slot], 4);
+          str_offsets_[slot].putInt(str_data_[slot].position());
+        }
+      }
+      num_rows_++;
+    }
+
+    public OffHeapTableStorage Build() {
+      ByteBuffer[] int_cols = new ByteBuffer[int_cols_.length];
+      for (int slot = 0; slot < int_cols.length; slot++) {
+        int_cols[slot] = Trim(int_cols_[slot]);
+      }
+      ByteBuffer[] str_offsets = new ByteBuffer[str_offsets_.length];
+      ByteBuffer[] str_data = new ByteBuffer[str_data_.length];
+      for (int slot = 0; slot < str_data.length; slot++) {
+        str_offsets[slot] = Trim(str_offsets_[slot]);
+        str_data[slot] = Trim(str_data_[slot]);
+      }
+      return new OffHeapTableStorage(num_rows_, slots_, types_, int_cols, str_offsets, str_data);
+    }
+
+    private static ByteBuffer Allocate(int capacity) {
+      return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    // Returns a buffer with space for 'num_bytes' more bytes, either 'buf' itself or
+    // a larger copy of it.
+    private static ByteBuffer Reserve(ByteBuffer buf, int num_bytes) {
+      if (buf.remaining() >= num_bytes) {
+        return buf;
+      }
+      long required = (long) buf.position() + num_bytes;
+      if (required > Integer.MAX_VALUE) {
+        throw new IllegalStateException("column too large for off-heap table storage");
+      }
+      long capacity = Math.max(required, Math.min(2L * buf.capacity(), Integer.MAX_VALUE));
+      ByteBuffer grown = Allocate((int) capacity);
+      buf.flip();
+      grown.put(buf);
+      return grown;
+    }
+
+    // Copies the written part of the buffer to an exact sized buffer to release the
+    // over-allocation from growing the buffer.
+    private static ByteBuffer Trim(ByteBuffer buf) {
+      buf.flip();
+      ByteBuffer trimmed = Allocate(buf.remaining());
+      trimmed.put(buf);
+      trimmed.flip();
+      return trimmed;
+    }
+  }
+}
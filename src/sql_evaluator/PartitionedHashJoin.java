@@ -0,0 +1,308 @@
+package sql_evaluator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Partitioned (Grace) hash join of two tables on an equality condition between a column
+ * of each of the tables.
+ *
+ * The hash table is built on the smaller table. In case the estimated size of the hash
+ * table exceeds the memory budget, both the tables are first split into partitions on disk
+ * by the hash of the join key, such that the hash table for each partition fits within
+ * the budget. Then each pair of partitions is joined in memory, one partition at a time.
+ * Each partition file stores the row index and the join key of the rows. The number of
+ * partitions is capped at kMaxPartitions, so with tables larger than kMaxPartitions times
+ * the budget, the hash table of each partition exceeds the budget.
+ *
+ * Rest of the where clause is applied to the joined rows with the supplied filter, and
+ * the result is sorted to match the order of the rows in the nested loops cross product.
+ *
+ * With a row limit, the hash table is built on the second table instead, so that probing
+ * the rows of the first table in order finds the joined rows in the order of the result,
+ * within each partition. Probing a partition stops as soon as it has found as many rows
+ * as the limit.
+ */
+final class PartitionedHashJoin {
+  // Rough heap footprint of a hash table entry: HashMap node, key object and row index.
+  private static final long kEntryOverheadBytes = 64;
+  // Number of rows sampled to estimate the average length of a "str" join key.
+  private static final int kNumSampledRows = 1000;
+  // Limits the number of files open at once while partitioning. The hash tables of the
+  // partitions exceed the memory budget in case more partitions would be needed.
+  private static final int kMaxPartitions = 512;
+
+  private final TableStorage[] tables_;
+  // Positions of the tables in the "from" clause and the join key column in each of them.
+  private final int build_pos_;
+  private final int build_col_;
+  private final int probe_pos_;
+  private final int probe_col_;
+  private final SqlType key_type_;
+  private final RowFilter filter_;
+  private final long memory_budget_;
+  private final File spill_dir_;
+  // Maximum number of pairs returned, -1 if there is no limit.
+  private final int row_limit_;
+  private final Cancellation cancellation_;
+
+  // Rows of the cross product that satisfy the filter, packed as
+  // (row index in first table << 32) | row index in second table.
+  private long[] pairs_ = new long[16];
+  private int num_pairs_ = 0;
+  // Index in 'pairs_' of the first pair found in the partition being joined.
+  private int partition_start_ = 0;
+  // Scratch row indices passed to the filter.
+  private final int[] row_idxs_ = new int[2];
+  // Number of candidate rows tested against the filter, to check for cancellation.
+  private long num_tested_ = 0;
+
+  /**
+   * @param tables the two tables being joined, in the order of the "from" clause.
+   * @param cols the join key column in each of the tables.
+   * @param key_type type of the join key columns.
+   * @param filter the where clause, including the join condition.
+   * @param memory_budget maximum estimated size of a hash table in bytes, unless that would
+   *                      take more than kMaxPartitions partitions.
+   * @param spill_dir directory under which the partitions are written, created if needed
+   *                  and removed afterwards in that case.
+   * @param row_limit maximum number of pairs returned, -1 if there is no limit.
+   * @param cancellation checked periodically while joining.
+   */
+  PartitionedHashJoin(TableStorage[] tables, int[] cols, SqlType key_type, RowFilter filter,
+                      long memory_budget, File spill_dir, int row_limit,
+                      Cancellation cancellation) {
+    assert tables.length == 2 && cols.length == 2;
+    tables_ = tables;
+    build_pos_ = row_limit < 0 && tables[0].NumRows() <= tables[1].NumRows() ? 0 : 1;
+    probe_pos_ = 1 - build_pos_;
+    build_col_ = cols[build_pos_];
+    probe_col_ = cols[probe_pos_];
+    key_type_ = key_type;
+    filter_ = filter;
+    memory_budget_ = memory_budget;
+    spill_dir_ = spill_dir;
+    row_limit_ = row_limit;
+    cancellation_ = cancellation;
+  }
+
+  /**
+   * Returns the pairs of row indices that satisfy the filter, packed as
+   * (row index in first table << 32) | row index in second table, in ascending order.
+   * With a row limit, only the first pairs up to the limit are returned.
+   */
+  long[] Join() throws IOException {
+    int num_partitions = NumPartitions();
+    if (num_partitions == 1) {
+      TableStorage build = tables_[build_pos_];
+      TableStorage probe = tables_[probe_pos_];
+      HashMap<Object, IntList> hash_table = new HashMap<>();
+      for (int row = 0; row < build.NumRows(); row++) {
+        if (row % Cancellation.kCheckInterval == 0) {
+          cancellation_.Check();
+        }
+        hash_table.computeIfAbsent(GetKey(build, row, build_col_), k -> new IntList(1))
+          .Add(row);
+      }
+      for (int row = 0; row < probe.NumRows(); row++) {
+        if (row % Cancellation.kCheckInterval == 0) {
+          cancellation_.Check();
+        }
+        if (!Probe(hash_table, GetKey(probe, row, probe_col_), row)) {
+          break;
+        }
+      }
+    } else {
+      boolean created_spill_dir = !spill_dir_.isDirectory();
+      if (created_spill_dir && !spill_dir_.mkdirs()) {
+        throw new IOException("failed to create directory \"" + spill_dir_ + "\"");
+      }
+      File join_dir = Files.createTempDirectory(spill_dir_.toPath(), "join-").toFile();
+      try {
+        File[] build_files = Partition(tables_[build_pos_], build_col_, num_partitions,
+          join_dir, "build-");
+        File[] probe_files = Partition(tables_[probe_pos_], probe_col_, num_partitions,
+          join_dir, "probe-");
+        for (int partition = 0; partition < num_partitions; partition++) {
+          JoinPartition(build_files[partition], probe_files[partition]);
+          Files.delete(build_files[partition].toPath());
+          Files.delete(probe_files[partition].toPath());
+          if (row_limit_ >= 0) {
+            // Only the first pairs up to the limit found so far can be part of the result.
+            Arrays.sort(pairs_, 0, num_pairs_);
+            num_pairs_ = Math.min(num_pairs_, row_limit_);
+            partition_start_ = num_pairs_;
+          }
+        }
+      } finally {
+        File[] files = join_dir.listFiles();
+        if (files != null) {
+          for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+          }
+        }
+        Files.deleteIfExists(join_dir.toPath());
+        // Only removed if this join created it. Another join using it at the same time keeps
+        // it from being removed, since File.delete() fails on a directory which isn't empty.
+        if (created_spill_dir) {
+          spill_dir_.delete();
+        }
+      }
+    }
+    Arrays.sort(pairs_, 0, num_pairs_);
+    return Arrays.copyOf(pairs_, row_limit_ >= 0 ? Math.min(num_pairs_, row_limit_) : num_pairs_);
+  }
+
+  // Number of partitions required so that the hash table of each partition fits in the
+  // memory budget, assuming the join keys are evenly distributed, up to kMaxPartitions.
+  private int NumPartitions() {
+    TableStorage build = tables_[build_pos_];
+    long entry_bytes = kEntryOverheadBytes;
+    if (key_type_ == SqlType.STR) {
+      int num_sampled = Math.min(build.NumRows(), kNumSampledRows);
+      long total_len = 0;
+      for (int row = 0; row < num_sampled; row++) {
+        total_len += build.GetString(row, build_col_).length();
+      }
+      // String object and its char array.
+      entry_bytes += 40 + (num_sampled > 0 ? 2 * total_len / num_sampled : 0);
+    }
+    long hash_table_bytes = entry_bytes * build.NumRows();
+    long num_partitions = (hash_table_bytes + memory_budget_ - 1) / memory_budget_;
+    return (int) Math.max(1, Math.min(num_partitions, kMaxPartitions));
+  }
+
+  private Object GetKey(TableStorage table, int row, int col) {
+    if (key_type_ == SqlType.INT) {
+      return table.GetInt(row, col);
+    }
+    return table.GetString(row, col);
+  }
+
+  private static int PartitionOf(Object key, int num_partitions) {
+    // Spread the bits since consecutive int keys have consecutive hash codes.
+    int hash = key.hashCode() * 0x9E3779B9;
+    return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % num_partitions;
+  }
+
+  // Writes the row index and join key of every row of 'table' to the partition file
+  // corresponding to the hash of the key.
+  private File[] Partition(TableStorage table, int col, int num_partitions, File dir,
+                           String prefix) throws IOException {
+    File[] files = new File[num_partitions];
+    DataOutputStream[] outs = new DataOutputStream[num_partitions];
+    try {
+      for (int partition = 0; partition < num_partitions; partition++) {
+        files[partition] = new File(dir, prefix + partition);
+        outs[partition] = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(files[partition])));
+      }
+      for (int row = 0; row < table.NumRows(); row++) {
+        if (row % Cancellation.kCheckInterval == 0) {
+          cancellation_.Check();
+        }
+        Object key = GetKey(table, row, col);
+        DataOutputStream out = outs[PartitionOf(key, num_partitions)];
+        out.writeInt(row);
+        if (key_type_ == SqlType.INT) {
+          out.writeInt((Integer) key);
+        } else {
+          byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+      }
+    } finally {
+      for (DataOutputStream out : outs) {
+        if (out != null) {
+          out.close();
+        }
+      }
+    }
+    return files;
+  }
+
+  // Reads the next key from the partition file after its row index has been read.
+  private Object ReadKey(DataInputStream in) throws IOException {
+    if (key_type_ == SqlType.INT) {
+      return in.readInt();
+    }
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void JoinPartition(File build_file, File probe_file) throws IOException {
+    HashMap<Object, IntList> hash_table = new HashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+           new FileInputStream(build_file)))) {
+      for (int i = 0; ; i++) {
+        if (i % Cancellation.kCheckInterval == 0) {
+          cancellation_.Check();
+        }
+        int row;
+        try {
+          row = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        hash_table.computeIfAbsent(ReadKey(in), k -> new IntList(1)).Add(row);
+      }
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+           new FileInputStream(probe_file)))) {
+      for (int i = 0; ; i++) {
+        if (i % Cancellation.kCheckInterval == 0) {
+          cancellation_.Check();
+        }
+        int row;
+        try {
+          row = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        if (!Probe(hash_table, ReadKey(in), row)) {
+          break;
+        }
+      }
+    }
+  }
+
+  // Looks up the probe row in the hash table and records the matching rows that
+  // satisfy the filter. Returns false once the partition has found the rows up to the limit.
+  private boolean Probe(HashMap<Object, IntList> hash_table, Object key, int probe_row) {
+    IntList build_rows = hash_table.get(key);
+    if (build_rows == null) {
+      return true;
+    }
+    row_idxs_[probe_pos_] = probe_row;
+    for (int i = 0; i < build_rows.Size(); i++) {
+      if (++num_tested_ % Cancellation.kCheckInterval == 0) {
+        cancellation_.Check();
+      }
+      row_idxs_[build_pos_] = build_rows.Get(i);
+      if (!filter_.Test(tables_, row_idxs_)) {
+        continue;
+      }
+      if (num_pairs_ == pairs_.length) {
+        pairs_ = Arrays.copyOf(pairs_, 2 * num_pairs_);
+      }
+      pairs_[num_pairs_++] = ((long) row_idxs_[0] << 32) | row_idxs_[1];
+      if (row_limit_ >= 0 && num_pairs_ - partition_start_ >= row_limit_) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -6,26 +6,34 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.ArrayList;
 
 /**
- * The top-level node for a query: SELECT ... FROM ... WHERE.
+ * The top-level node for a query: SELECT ... FROM ... WHERE ... LIMIT.
  */
 public final class Query extends Node {
     public final ArrayList<Selector> select;  // non-empty
     public final ArrayList<TableDecl> from;  // non-empty
     public final ArrayList<Condition> where;
+    public final Integer limit;  // null when there is no limit on the number of result rows
+
+    public Query(ArrayList<Selector> select, ArrayList<TableDecl> from, ArrayList<Condition> where) {
+        this(select, from, where, null);
+    }
 
     @JsonCreator
     public Query(
         @JsonProperty("select") ArrayList<Selector> select,
         @JsonProperty("from") ArrayList<TableDecl> from,
-        @JsonProperty("where") ArrayList<Condition> where
+        @JsonProperty("where") ArrayList<Condition> where,
+        @JsonProperty("limit") Integer limit
     ) {
         if (select == null) throw new IllegalArgumentException("'select' can't be null");
         if (from == null) throw new IllegalArgumentException("'from' can't be null");
         if (where == null) throw new IllegalArgumentException("'where' can't be null");
         if (select.size() == 0) throw new IllegalArgumentException("'select' can't be empty");
         if (from.size() == 0) throw new IllegalArgumentException("'from' can't be empty");
+        if (limit != null && limit < 0) throw new IllegalArgumentException("'limit' can't be negative");
         this.select = select;
         this.from = from;
         this.where = where;
+        this.limit = limit;
     }
 }
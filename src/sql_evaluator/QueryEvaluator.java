@@ -1,14 +1,16 @@
 package sql_evaluator;
 
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import sql_evaluator.Table.ColumnDef;
@@ -29,13 +31,31 @@ public class QueryEvaluator {
   // Mapping of non-aliased column name to corresponding potentially multiple tables.
   private final Map<String, List<String>> column_table_map_ = new HashMap<>();
 
-  // Map aliased table name to the base index in the cross-product table.
-  private final Map<String, Integer> table_name_to_idx_ = new HashMap<>();
-  private final ArrayList<ColumnDef> cross_columns_ = new ArrayList<>();
-  // Combined cross-product of rows
-  private ArrayList<ArrayList<Object>> cross_rows_;
-  // Filtered rows
-  private ArrayList<ArrayList<Object>> filtered_rows_;
+  // Map aliased table name to its position in the "from" clause.
+  private final Map<String, Integer> table_name_to_pos_ = new HashMap<>();
+  // Tables in the order of the "from" clause.
+  private final ArrayList<Table> tables_ = new ArrayList<>();
+  // Maximum number of rows in the result, -1 if there is no limit.
+  private final int row_limit_;
+  // Where clause conditions with the column terms resolved to their table position and
+  // column index.
+  private final ArrayList<ResolvedCondition> resolved_where_ = new ArrayList<>();
+  // Whether to evaluate the where clause with a generated filter class, see FilterCompiler.
+  private boolean compile_filter_ = false;
+  // Filter evaluating the where clause, either interpreted or compiled.
+  private RowFilter filter_;
+  // Selected columns resolved to their table position and column index.
+  private final ArrayList<ResolvedTerm> proj_terms_ = new ArrayList<>();
+  // Selected columns with their alias name and data type.
+  private ArrayList<ColumnDef> proj_cols_;
+  // Memory budget in bytes for the hash table of an equi-join, 0 to always use nested loops.
+  private long join_memory_budget_ = 0;
+  // Directory under which the partitions of a hash join exceeding the budget are written.
+  private File join_spill_dir_;
+  // Whether Prepare() has been called successfully.
+  private boolean prepared_ = false;
+  // Checked periodically by the loops over the rows, see Cancel().
+  private final Cancellation cancellation_ = new Cancellation();
 
   /**
    * QueryEvaluator constructor.
@@ -49,11 +69,15 @@ public class QueryEvaluator {
     query_ = query;
     out_ = out;
 
+    row_limit_ = query.limit != null ? query.limit : -1;
+
     table_name_map_ = table_name_map;
     // Populate the column name to table name map
     for (Entry<String, Table> name_table : table_name_map_.entrySet()) {
       String table_name = name_table.getKey();
       Table table = name_table.getValue();
+      table_name_to_pos_.put(table_name, tables_.size());
+      tables_.add(table);
       for (ColumnDef column_def : table.columns) {
         column_table_map_.computeIfAbsent(column_def.name, v -> new ArrayList<>())
           .add(table_name);
@@ -61,6 +85,63 @@ public class QueryEvaluator {
     }
   }
 
+  /**
+   * Returns the names of the columns of the table named 'table_name' in the "from" clause
+   * that the query may reference: the columns qualified with that name and all the
+   * unqualified columns. Only these need to be loaded to evaluate the query.
+   */
+  public static Set<String> GetReferencedColumns(Query query, String table_name) {
+    ArrayList<ColumnRef> refs = new ArrayList<>();
+    for (Selector selector : query.select) {
+      refs.add(selector.source);
+    }
+    for (Condition cond : query.where) {
+      for (Term term : new Term[] {cond.left, cond.right}) {
+        if (term instanceof Column) {
+          refs.add(((Column) term).ref);
+        }
+      }
+    }
+    Set<String> names = new HashSet<>();
+    for (ColumnRef ref : refs) {
+      if (ref.table == null || ref.table.isEmpty() || ref.table.equals(table_name)) {
+        names.add(ref.name);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Sets whether the where clause should be compiled into a generated class instead of
+   * being interpreted for every row. Compilation is only worthwhile for recurring queries
+   * or large inputs. Evaluation falls back to the interpreted filter if the compilation fails.
+   */
+  public void SetCompileFilter(boolean compile_filter) {
+    compile_filter_ = compile_filter;
+  }
+
+  /**
+   * Enables evaluating a query joining two tables on an equality condition with a hash
+   * join instead of nested loops. In case the hash table doesn't fit the memory budget,
+   * both the tables are partitioned on disk first. See PartitionedHashJoin.
+   *
+   * @param memory_budget memory budget in bytes for the hash table, 0 to disable. It's
+   *                      exceeded by tables needing more than 512 partitions.
+   * @param spill_dir directory under which the partitions are written.
+   */
+  public void SetJoinMemoryBudget(long memory_budget, File spill_dir) {
+    join_memory_budget_ = memory_budget;
+    join_spill_dir_ = spill_dir;
+  }
+
+  /**
+   * Cancels the evaluation of the query, possibly from another thread. Evaluate() stops
+   * shortly after and prints an error instead of the result.
+   */
+  public void Cancel() {
+    cancellation_.Cancel();
+  }
+
   /**
    * Evaluates the query and writes output to the supplied output writer.
    * In case of any error, the error is printed to the supplied output file.
@@ -69,21 +150,95 @@ public class QueryEvaluator {
    * @throws IOException
    */
   public boolean Evaluate() throws IOException {
+    if (!prepared_ && !Prepare()) {
+      return false;
+    }
+    ArrayList<ArrayList<Object>> proj_rows = new ArrayList<>();
+    try {
+      ResolvedCondition join_cond = join_memory_budget_ > 0 ? FindEquiJoinCondition() : null;
+      if (join_cond != null) {
+        HashJoinAndProjectRows(join_cond, proj_rows);
+      } else {
+        FilterAndProjectRows(NewCrossProduct(), proj_rows);
+      }
+    } catch (Cancellation.CancelledException e) {
+      out_.println("ERROR: Query cancelled.");
+      out_.flush();
+      return false;
+    }
+    Table result_table = new Table(proj_cols_, proj_rows);
+    // Not wrapped in a BufferedWriter since ResultWriter buffers the rows itself, and the
+    // monitor of a BufferedWriter would pin a virtual thread blocking on the output.
+    try (Writer out = out_) {
+      Main.writeTable(out, result_table);
+    }
+    return true;
+  }
+
+  /**
+   * Validates the query and resolves the select and where clauses for evaluation.
+   * In case of any error, the error is printed to the supplied output file.
+   * Calling it again after it succeeded has no effect.
+   *
+   * @return  Whether the query is valid.
+   */
+  boolean Prepare() {
+    if (prepared_) {
+      return true;
+    }
     if (!ValidateSelectClause()) {
       return false;
     }
     if (!ValidateWhereClause()) {
       return false;
     }
-    ComputeCrossProduct();
-    FilterRows();
-    Table result_table = ProjectRows();
-    try (Writer out = new BufferedWriter(out_)) {
-      Main.writeTable(out, result_table);
+    ResolveWhereClause();
+    ScanPlanner.OrderBySelectivity(tables_, resolved_where_);
+    proj_cols_ = GetProjectedColumns(proj_terms_);
+    if (compile_filter_ && !resolved_where_.isEmpty()) {
+      filter_ = FilterCompiler.Compile(resolved_where_);
     }
+    if (filter_ == null) {
+      filter_ = (tables, row_idxs) -> EvaluateConditions(resolved_where_, tables, row_idxs);
+    }
+    prepared_ = true;
     return true;
   }
 
+  /**
+   * Returns the estimated number of rows of the cross product that need to be enumerated,
+   * used for scheduling the query. Must be called after Prepare().
+   */
+  double EstimateCost() {
+    return ScanPlanner.EstimateCost(tables_, resolved_where_);
+  }
+
+  /**
+   * Returns the tables in the order of the "from" clause.
+   */
+  ArrayList<Table> GetTables() {
+    return tables_;
+  }
+
+  /**
+   * Returns the columns of the result. Must be called after Prepare().
+   */
+  ArrayList<ColumnDef> GetResultColumns() {
+    return proj_cols_;
+  }
+
+  /**
+   * Returns the index of each of the selected columns in its table. Must be called after
+   * Prepare().
+   */
+  int[] GetProjectedColumnIndices() {
+    int[] col_idxs = new int[proj_terms_.size()];
+    for (int i = 0; i < col_idxs.length; i++) {
+      col_idxs[i] = proj_terms_.get(i).col_idx;
+    }
+    return col_idxs;
+  }
+
   // Given a non-null, non-empty column_name, check whether the column exists in the
   // specified table_name which can be null in which case check across all tables.
   // Returns whether the column is present and in case the column is not present writes
@@ -218,163 +373,288 @@ public class QueryEvaluator {
     return true;
   }
 
-  private void ComputeCrossProduct() {
-    ArrayList<ArrayList<Object>> prev_rows = null;
-    // To compute cross product A x B x C..., first multiply A with B and then use the result
-    // to multiply with C and so on.
-    // "prev_rows" stores the result so far and "curr_table" is the table to be multiplied
-    // with prev_rows.
-    for (Entry<String, Table> name_table : table_name_map_.entrySet()) {
-      String table_name = name_table.getKey();
-      Table curr_table = name_table.getValue();
-      if (prev_rows == null) {
-        prev_rows = new ArrayList<>(curr_table.rows);
-        table_name_to_idx_.put(table_name, 0);
-        cross_columns_.addAll(curr_table.columns);
-        continue;
+  // Column term resolved to the position of its table in the "from" clause and the
+  // index of the column in that table. Literal terms only carry the value, unboxed
+  // in case of an int literal.
+  static class ResolvedTerm {
+    public final int table_pos;
+    public final int col_idx;
+    public final SqlType type;
+    public final boolean is_literal;
+    public final int int_literal;
+    public final String str_literal;
+    ResolvedTerm(int t_pos, int c_idx, SqlType t) {
+      table_pos = t_pos;
+      col_idx = c_idx;
+      type = t;
+      is_literal = false;
+      int_literal = 0;
+      str_literal = null;
+    }
+    ResolvedTerm(Literal lit) {
+      table_pos = col_idx = -1;
+      is_literal = true;
+      if (lit.isString()) {
+        type = SqlType.STR;
+        int_literal = 0;
+        str_literal = lit.stringValue();
+      } else {
+        type = SqlType.INT;
+        int_literal = lit.intValue();
+        str_literal = null;
       }
-      ArrayList<ArrayList<Object>> curr_table_rows = curr_table.rows;
-      ArrayList<ArrayList<Object>> cross_rows = new ArrayList<>();
-      for (ArrayList<Object> prev_row : prev_rows) {
-        for (ArrayList<Object> curr_table_row : curr_table_rows) {
-          ArrayList<Object> cross_row = new ArrayList<>(prev_row);
-          cross_row.addAll(curr_table_row);
-          cross_rows.add(cross_row);
-        }
+    }
+  }
+
+  static class ResolvedCondition {
+    public final Condition.Op op;
+    public final ResolvedTerm left;
+    public final ResolvedTerm right;
+    ResolvedCondition(Condition.Op o, ResolvedTerm l, ResolvedTerm r) {
+      op = o;
+      left = l;
+      right = r;
+    }
+  }
+
+  // Resolves the column 'col_name' in the table 'table_name', which may be null in case
+  // the column is not qualified. Column must have been validated to be present.
+  private ResolvedTerm ResolveColumn(String col_name, String table_name) {
+    if (table_name == null) {
+      List<String> matching_tables = column_table_map_.get(col_name);
+      assert matching_tables != null && matching_tables.size() == 1;
+      table_name = matching_tables.get(0);
+    }
+    int table_pos = table_name_to_pos_.get(table_name);
+    ArrayList<ColumnDef> columns = tables_.get(table_pos).columns;
+    int col_idx = 0;
+    for (; col_idx < columns.size(); col_idx++) {
+      if (columns.get(col_idx).name.equals(col_name)) {
+        break;
       }
-      // Discarding the previous intermediate result.
-      prev_rows = cross_rows;
-      table_name_to_idx_.put(table_name, cross_columns_.size());
-      cross_columns_.addAll(curr_table.columns);
     }
+    assert col_idx < columns.size();
+    return new ResolvedTerm(table_pos, col_idx, columns.get(col_idx).type);
+  }
+
+  private ResolvedTerm ResolveTerm(Term term) {
+    if (term instanceof Literal) {
+      return new ResolvedTerm((Literal) term);
+    }
+    ColumnRef ref = ((Column) term).ref;
+    return ResolveColumn(ref.name, ref.table);
+  }
 
-    cross_rows_ = prev_rows;
+  // Resolves the where clause terms once so that evaluating a row doesn't need to
+  // lookup the columns by name.
+  private void ResolveWhereClause() {
+    for (Condition cond : query_.where) {
+      resolved_where_.add(new ResolvedCondition(cond.op, ResolveTerm(cond.left),
+        ResolveTerm(cond.right)));
+    }
   }
 
-  // Get the value of the term specified in the where clause
+  // Get the value of the column term in the current row of the cross product.
+  private static Object GetColumnValue(ResolvedTerm term, TableStorage[] tables,
+                                       int[] row_idxs) {
+    assert !term.is_literal;
+    return tables[term.table_pos].GetValue(row_idxs[term.table_pos], term.col_idx);
+  }
+
+  // Get the value of the int term specified in the where clause
   // where the term could be a literal or corresponding to value in a column.
-  private Object GetTermValue(Term term, ArrayList<Object> row) {
-    TermResult tr = ProcessTerm(term);
-    if (tr.is_literal) {
-      Literal l = (Literal) term;
-      return l.value;
-    } else {
-      assert tr.is_column_present;
-      int col_idx = table_name_to_idx_.get(tr.table_name);
-      for (; col_idx < cross_columns_.size(); col_idx++) {
-        if (cross_columns_.get(col_idx).name.equals(tr.col_name)) {
-          break;
-        }
+  private static int GetIntTermValue(ResolvedTerm term, TableStorage[] tables, int[] row_idxs) {
+    if (term.is_literal) {
+      return term.int_literal;
+    }
+    return tables[term.table_pos].GetInt(row_idxs[term.table_pos], term.col_idx);
+  }
+
+  // Compare the str terms specified in the where clause, same as String.compareTo().
+  // Comparison is done without materializing String objects for the cells.
+  private static int CompareStringTerms(ResolvedTerm left, ResolvedTerm right,
+                                        TableStorage[] tables, int[] row_idxs) {
+    if (left.is_literal) {
+      if (right.is_literal) {
+        return left.str_literal.compareTo(right.str_literal);
       }
-      return row.get(col_idx);
-    }
-  }
-
-  // Apply the where clause to filter rows from the computed cross product.
-  private void FilterRows() {
-    // Note: We could remove rows from 'cross_rows_' itself instead of creating
-    //       separate 'filtered_rows' output. However that would require deleting
-    //       element that's not at the start or end. We could potentially use LinkedList
-    //       but then the memory won't be contiguous and may not be efficient in terms
-    //       of memory/cache access.
-    //
-    // Optimization in case there is no where clause.
-    if (query_.where.isEmpty()) {
-      filtered_rows_ = cross_rows_;
-      return;
-    }
-
-    filtered_rows_ = new ArrayList<>();
-    // For every cross row iterate over the where clauses to filter out rows.
-    for (ArrayList<Object> row : cross_rows_) {
-      boolean include_row = true;
-      for (Condition cond : query_.where) {
-        Object l_val = GetTermValue(cond.left, row);
-        Object r_val = GetTermValue(cond.right, row);
-        int compare_result;
-        if (l_val instanceof String) {
-          assert r_val instanceof String;
-          compare_result = ((String) l_val).compareTo((String) r_val);
-        } else {
-          assert l_val instanceof Integer;
-          assert r_val instanceof Integer;
-          compare_result = ((Integer) l_val).compareTo((Integer) r_val);
-        }
-        switch (cond.op) {
-          case EQ:
-            if (compare_result != 0) include_row = false;
-            break;
-          case NE:
-            if (compare_result == 0) include_row = false;
-            break;
-          case GT:
-            if (compare_result <= 0) include_row = false;
-            break;
-          case GE:
-            if (compare_result < 0) include_row = false;
-          case LT:
-            if (compare_result >= 0) include_row = false;
-            break;
-          case LE:
-            if (compare_result > 0) include_row = false;
-            break;
-          default:
-            assert false;
-        }
-        if (!include_row) break;
+      return -tables[right.table_pos].CompareString(row_idxs[right.table_pos], right.col_idx,
+        left.str_literal);
+    }
+    TableStorage left_table = tables[left.table_pos];
+    int left_row = row_idxs[left.table_pos];
+    if (right.is_literal) {
+      return left_table.CompareString(left_row, left.col_idx, right.str_literal);
+    }
+    return left_table.CompareStrings(left_row, left.col_idx, tables[right.table_pos],
+      row_idxs[right.table_pos], right.col_idx);
+  }
+
+  /**
+   * Apply the conditions to the current row of the cross product, supplied as
+   * the current row index in each of the tables.
+   */
+  static boolean EvaluateConditions(List<ResolvedCondition> conds, TableStorage[] tables,
+                                    int[] row_idxs) {
+    for (ResolvedCondition cond : conds) {
+      // Both the terms have the same type as verified by ValidateWhereClause().
+      int compare_result;
+      if (cond.left.type == SqlType.STR) {
+        compare_result = CompareStringTerms(cond.left, cond.right, tables, row_idxs);
+      } else {
+        compare_result = Integer.compare(GetIntTermValue(cond.left, tables, row_idxs),
+          GetIntTermValue(cond.right, tables, row_idxs));
       }
-      if (include_row) {
-        filtered_rows_.add(row);
+      boolean include_row;
+      switch (cond.op) {
+        case EQ:
+          include_row = compare_result == 0;
+          break;
+        case NE:
+          include_row = compare_result != 0;
+          break;
+        case GT:
+          include_row = compare_result > 0;
+          break;
+        case GE:
+          include_row = compare_result >= 0;
+          break;
+        case LT:
+          include_row = compare_result < 0;
+          break;
+        case LE:
+          include_row = compare_result <= 0;
+          break;
+        default:
+          throw new AssertionError("unhandled Op: " + cond.op);
+      }
+      if (!include_row) {
+        return false;
       }
     }
+    return true;
   }
 
   // Fetch the projected columns. Return value includes all the selected columns
   // with their alias name and data type.
-  // 'col_idxs' is an output parameter returning the indices of selected columns
-  // in the cross product table.
-  private ArrayList<ColumnDef> GetProjectedColumns(ArrayList<Integer> col_idxs) {
+  // 'proj_terms' is an output parameter returning the resolved selected columns.
+  private ArrayList<ColumnDef> GetProjectedColumns(ArrayList<ResolvedTerm> proj_terms) {
     ArrayList<ColumnDef> proj_cols = new ArrayList<>();
 
     for (Selector selector : query_.select) {
       String alias_name = selector.name;
       String column_name = selector.source.name;
       assert column_name != null && !column_name.isEmpty();
-      String table_name = selector.source.table;
-      if (table_name == null) {
-        List<String> matching_tables = column_table_map_.get(column_name);
-        assert matching_tables.size() == 1;
-        table_name = matching_tables.get(0);
+      ResolvedTerm term = ResolveColumn(column_name, selector.source.table);
+      proj_terms.add(term);
+      proj_cols.add(new ColumnDef(alias_name, term.type));
+    }
+    return proj_cols;
+  }
+
+  /**
+   * Appends the projected rows from the cross product rows that satisfy the where clause
+   * to 'proj_rows'. Must be called after Prepare().
+   *
+   * Note: The cross product is enumerated lazily, so neither the cross product nor the
+   *       filtered rows are materialized, and the enumeration stops as soon as
+   *       'proj_rows' reaches the row limit, if any.
+   */
+  void FilterAndProjectRows(CrossProduct cross, ArrayList<ArrayList<Object>> proj_rows) {
+    TableStorage[] tables = cross.GetTables();
+    int[] row_idxs = cross.GetRowIdxs();
+    int num_visited = 0;
+    while ((row_limit_ < 0 || proj_rows.size() < row_limit_) && cross.Next()) {
+      if (++num_visited == Cancellation.kCheckInterval) {
+        num_visited = 0;
+        cancellation_.Check();
       }
-      assert table_name != null;
-      int i = table_name_to_idx_.get(table_name);
-      SqlType type = SqlType.INT;
-      for (; i < cross_columns_.size(); i++) {
-        if (cross_columns_.get(i).name.equals(column_name)) {
-          type = cross_columns_.get(i).type;
-          break;
+      if (!filter_.Test(tables, row_idxs)) {
+        continue;
+      }
+      proj_rows.add(ProjectRow(tables, row_idxs));
+    }
+  }
+
+  /**
+   * Returns the number of rows of the cross product satisfying the where clause, without
+   * projecting them. Must be called after Prepare(). Used to measure the filter by itself,
+   * see AllocationBenchmark.
+   */
+  long CountMatchingRows() {
+    CrossProduct cross = NewCrossProduct();
+    TableStorage[] tables = cross.GetTables();
+    int[] row_idxs = cross.GetRowIdxs();
+    long num_matching = 0;
+    while (cross.Next()) {
+      if (filter_.Test(tables, row_idxs)) {
+        num_matching++;
+      }
+    }
+    return num_matching;
+  }
+
+  // Returns the cross product over the rows of the tables that can contribute to the result.
+  private CrossProduct NewCrossProduct() {
+    CrossProduct cross = new CrossProduct(tables_);
+    // Reducing the rows only pays off when they're multiplied with rows of other tables.
+    if (tables_.size() > 1) {
+      int[][] row_selections = ScanPlanner.PlanRowSelections(tables_, resolved_where_,
+        cancellation_);
+      for (int pos = 0; pos < tables_.size(); pos++) {
+        if (row_selections[pos] != null) {
+          cross.RestrictRows(pos, row_selections[pos]);
         }
       }
-      assert i < cross_columns_.size();
-      col_idxs.add(i);
-      proj_cols.add(new ColumnDef(alias_name, type));
     }
-    return proj_cols;
+    return cross;
   }
 
-  // Return the result table comprising of projected rows from the filtered rows.
-  private Table ProjectRows() {
-    ArrayList<Integer> col_idxs = new ArrayList<>();
-    ArrayList<ColumnDef> proj_cols = GetProjectedColumns(col_idxs);
-    ArrayList<ArrayList<Object>> proj_rows = new ArrayList<>();
+  // Returns the selected columns of the row of the cross product.
+  private ArrayList<Object> ProjectRow(TableStorage[] tables, int[] row_idxs) {
+    ArrayList<Object> proj_row = new ArrayList<>(proj_terms_.size());
+    for (ResolvedTerm term : proj_terms_) {
+      proj_row.add(GetColumnValue(term, tables, row_idxs));
+    }
+    return proj_row;
+  }
+
+  // Returns the equality condition between columns of the two tables in case the query
+  // joins exactly two tables, null otherwise.
+  private ResolvedCondition FindEquiJoinCondition() {
+    if (tables_.size() != 2) {
+      return null;
+    }
+    for (ResolvedCondition cond : resolved_where_) {
+      if (cond.op == Condition.Op.EQ && !cond.left.is_literal && !cond.right.is_literal &&
+          cond.left.table_pos != cond.right.table_pos) {
+        return cond;
+      }
+    }
+    return null;
+  }
 
-    for (ArrayList<Object> row : filtered_rows_) {
-      ArrayList<Object> proj_row = new ArrayList<>();
-      for (Integer col_idx : col_idxs) {
-        proj_row.add(row.get(col_idx));
+  // Same as FilterAndProjectRows() but using a hash join on the supplied equality condition
+  // to find the rows that satisfy the where clause.
+  private void HashJoinAndProjectRows(ResolvedCondition join_cond,
+                                      ArrayList<ArrayList<Object>> proj_rows)
+    throws IOException {
+    TableStorage[] tables = { tables_.get(0).storage, tables_.get(1).storage };
+    int[] cols = new int[2];
+    cols[join_cond.left.table_pos] = join_cond.left.col_idx;
+    cols[join_cond.right.table_pos] = join_cond.right.col_idx;
+    PartitionedHashJoin join = new PartitionedHashJoin(tables, cols, join_cond.left.type,
+      filter_, join_memory_budget_, join_spill_dir_, row_limit_, cancellation_);
+    // Pairs of row indices are sorted, so the rows are in the same order as produced by
+    // the nested loops.
+    int[] row_idxs = new int[2];
+    for (long pair : join.Join()) {
+      if (row_limit_ >= 0 && proj_rows.size() >= row_limit_) {
+        break;
       }
-      proj_rows.add(proj_row);
+      row_idxs[0] = (int) (pair >>> 32);
+      row_idxs[1] = (int) pair;
+      proj_rows.add(ProjectRow(tables, row_idxs));
     }
-    return new Table(proj_cols, proj_rows);
   }
 }
@@ -0,0 +1,198 @@
+package sql_evaluator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the evaluation of queries submitted concurrently, e.g. by a server hosting the
+ * evaluator, so that a few expensive queries don't starve the cheap ones.
+ *
+ * The cost of each query is estimated up front as the number of rows of the cross product
+ * remaining after applying the single table conditions, see ScanPlanner.EstimateCost().
+ * Queries cheaper than the threshold run in the fast lane, the rest in the heavy lane
+ * which runs a limited number of queries at a time and queues the rest. Queries exceeding
+ * the timeout are cancelled and print an error instead of the result.
+ *
+ * With NewVirtualThreadScheduler(), every query of the fast lane runs on its own virtual
+ * thread instead of being queued for a fixed number of threads, which suits many
+ * concurrent small queries spending most of their time blocked on reading tables or
+ * writing results. The heavy lane is CPU bound and keeps a fixed number of threads. The
+ * output of the evaluators should then be a ReentrantPrintWriter, which doesn't pin the
+ * virtual threads blocking on it; see VirtualThreadLoadTest.
+ */
+public final class QueryScheduler implements AutoCloseable {
+  private final double heavy_cost_threshold_;
+  private final long timeout_ms_;
+  private final ExecutorService fast_lane_;
+  private final ThreadPoolExecutor heavy_lane_;
+  // Cancels the queries on exceeding the timeout.
+  private final ScheduledExecutorService timer_;
+
+  private final AtomicLong num_started_ = new AtomicLong();
+  private final AtomicLong num_completed_ = new AtomicLong();
+  private final AtomicLong num_timed_out_ = new AtomicLong();
+  private final AtomicLong total_wait_ns_ = new AtomicLong();
+  private final AtomicLong max_wait_ns_ = new AtomicLong();
+
+  /**
+   * Snapshot of the state of the scheduler.
+   */
+  public static final class Stats {
+    public final int fast_queue_depth;
+    public final int heavy_queue_depth;
+    public final long num_completed;
+    public final long num_timed_out;
+    // Time spent by the started queries waiting in the queues, in milliseconds.
+    public final double avg_wait_ms;
+    public final double max_wait_ms;
+
+    Stats(int fast_depth, int heavy_depth, long completed, long timed_out, double avg_wait,
+          double max_wait) {
+      fast_queue_depth = fast_depth;
+      heavy_queue_depth = heavy_depth;
+      num_completed = completed;
+      num_timed_out = timed_out;
+      avg_wait_ms = avg_wait;
+      max_wait_ms = max_wait;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("queued fast=%d heavy=%d, completed=%d, timed out=%d, " +
+        "wait avg=%.1fms max=%.1fms", fast_queue_depth, heavy_queue_depth, num_completed,
+        num_timed_out, avg_wait_ms, max_wait_ms);
+    }
+  }
+
+  /**
+   * @param num_fast_threads number of queries evaluated concurrently in the fast lane.
+   * @param max_concurrent_heavy number of queries evaluated concurrently in the heavy lane.
+   * @param heavy_cost_threshold estimated cost from which a query runs in the heavy lane.
+   * @param timeout_ms time after which a running query is cancelled, 0 for no timeout.
+   */
+  public QueryScheduler(int num_fast_threads, int max_concurrent_heavy,
+                        double heavy_cost_threshold, long timeout_ms) {
+    this(NewLane(num_fast_threads, "sql_evaluator-fast-"), max_concurrent_heavy,
+      heavy_cost_threshold, timeout_ms);
+  }
+
+  private QueryScheduler(ExecutorService fast_lane, int max_concurrent_heavy,
+                         double heavy_cost_threshold, long timeout_ms) {
+    heavy_cost_threshold_ = heavy_cost_threshold;
+    timeout_ms_ = timeout_ms;
+    fast_lane_ = fast_lane;
+    heavy_lane_ = NewLane(max_concurrent_heavy, "sql_evaluator-heavy-");
+    timer_ = Executors.newSingleThreadScheduledExecutor(
+      Threads.NewPlatformThreadFactory("sql_evaluator-timeout-"));
+  }
+
+  /**
+   * Returns a scheduler running every query of the fast lane on its own virtual thread,
+   * or on its own platform thread on a JDK not supporting virtual threads.
+   *
+   * @param max_concurrent_heavy number of queries evaluated concurrently in the heavy lane.
+   * @param heavy_cost_threshold estimated cost from which a query runs in the heavy lane.
+   * @param timeout_ms time after which a running query is cancelled, 0 for no timeout.
+   */
+  public static QueryScheduler NewVirtualThreadScheduler(int max_concurrent_heavy,
+                                                         double heavy_cost_threshold,
+                                                         long timeout_ms) {
+    return new QueryScheduler(Threads.NewThreadPerTaskExecutor("sql_evaluator-query-"),
+      max_concurrent_heavy, heavy_cost_threshold, timeout_ms);
+  }
+
+  private static ThreadPoolExecutor NewLane(int num_threads, String name_prefix) {
+    return new ThreadPoolExecutor(num_threads, num_threads, 0, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>(), Threads.NewPlatformThreadFactory(name_prefix));
+  }
+
+  // Number of queries waiting for a thread in the lane, always 0 for a lane starting a
+  // thread per query.
+  private static int QueueDepth(ExecutorService lane) {
+    return lane instanceof ThreadPoolExecutor ?
+      ((ThreadPoolExecutor) lane).getQueue().size() : 0;
+  }
+
+  /**
+   * Validates the query and queues it for evaluation in the lane corresponding to its
+   * estimated cost. In case of an invalid query, the error is printed to the output of
+   * the evaluator right away.
+   *
+   * @return  Whether the query evaluation was successful, see QueryEvaluator.Evaluate().
+   */
+  public Future<Boolean> Submit(QueryEvaluator evaluator) {
+    if (!evaluator.Prepare()) {
+      return CompletableFuture.completedFuture(false);
+    }
+    ExecutorService lane =
+      evaluator.EstimateCost() < heavy_cost_threshold_ ? fast_lane_ : heavy_lane_;
+    long submit_ns = System.nanoTime();
+    return lane.submit(() -> {
+      RecordWait(System.nanoTime() - submit_ns);
+      AtomicBoolean timed_out = new AtomicBoolean(false);
+      ScheduledFuture<?> timeout = null;
+      if (timeout_ms_ > 0) {
+        timeout = timer_.schedule(() -> {
+          timed_out.set(true);
+          evaluator.Cancel();
+        }, timeout_ms_, TimeUnit.MILLISECONDS);
+      }
+      try {
+        return evaluator.Evaluate();
+      } finally {
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+        if (timed_out.get()) {
+          num_timed_out_.incrementAndGet();
+        }
+        num_completed_.incrementAndGet();
+      }
+    });
+  }
+
+  private void RecordWait(long wait_ns) {
+    num_started_.incrementAndGet();
+    total_wait_ns_.addAndGet(wait_ns);
+    max_wait_ns_.accumulateAndGet(wait_ns, Math::max);
+  }
+
+  /**
+   * Returns the current queue depths and the wait times of the started queries.
+   */
+  public Stats GetStats() {
+    long num_started = num_started_.get();
+    double avg_wait_ns = num_started > 0 ? (double) total_wait_ns_.get() / num_started : 0;
+    return new Stats(QueueDepth(fast_lane_), QueueDepth(heavy_lane_),
+      num_completed_.get(), num_timed_out_.get(), avg_wait_ns / 1e6,
+      max_wait_ns_.get() / 1e6);
+  }
+
+  /**
+   * Stops accepting queries and waits for the queued queries to be evaluated. In case the
+   * calling thread is interrupted, it stops waiting with its interrupt status set, and the
+   * remaining queries are evaluated without the timeout.
+   */
+  @Override
+  public void close() {
+    fast_lane_.shutdown();
+    heavy_lane_.shutdown();
+    try {
+      fast_lane_.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      heavy_lane_.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      timer_.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package sql_evaluator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * InputStream that reads ahead from a channel on a dedicated thread, so that reading the
+ * bytes overlaps with parsing them.
+ *
+ * The reader thread fills large direct buffers from the channel and queues them for the
+ * consumer. Consumed buffers are handed back to the reader thread to be refilled, so only
+ * a fixed number of buffers is ever taken from DirectBufferPool, and only as many as
+ * needed, e.g. just one for a small file. They're released to the pool on close.
+ */
+public final class ReadAheadInputStream extends InputStream {
+  private static final int kNumBuffers = 4;
+  // Queued after the last buffer of the channel.
+  private static final ByteBuffer kEndOfStream = ByteBuffer.allocate(0);
+
+  private final ReadableByteChannel channel_;
+  // Buffers filled by the reader thread waiting to be consumed.
+  private final BlockingQueue<ByteBuffer> filled_ = new ArrayBlockingQueue<>(kNumBuffers + 1);
+  // Buffers consumed waiting to be refilled by the reader thread.
+  private final BlockingQueue<ByteBuffer> free_ = new ArrayBlockingQueue<>(kNumBuffers);
+  private final Thread reader_;
+  // Buffers taken from the pool by the reader thread.
+  private final ByteBuffer[] buffers_ = new ByteBuffer[kNumBuffers];
+  private int num_buffers_ = 0;
+  // Error encountered by the reader thread, e.g. an OutOfMemoryError on taking a direct
+  // buffer, rethrown to the consumer at the end of stream.
+  private volatile Throwable error_;
+  // Buffer being consumed, null when one needs to be dequeued.
+  private ByteBuffer current_;
+  private boolean eof_ = false;
+  private boolean closed_ = false;
+
+  /**
+   * @param channel channel to read from, closed when the stream is closed.
+   */
+  public ReadAheadInputStream(ReadableByteChannel channel) {
+    channel_ = channel;
+    reader_ = new Thread(this::ReadLoop, "sql_evaluator-read-ahead");
+    reader_.setDaemon(true);
+    reader_.start();
+  }
+
+  private void ReadLoop() {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        ByteBuffer buf = free_.poll();
+        if (buf == null) {
+          buf = num_buffers_ < kNumBuffers ? TakeBuffer() : free_.take();
+        }
+        buf.clear();
+        int num_read = 0;
+        while (buf.hasRemaining() && (num_read = channel_.read(buf)) >= 0) {
+          // Fill the buffer completely, unless the end of the channel is reached.
+        }
+        buf.flip();
+        if (buf.hasRemaining()) {
+          filled_.put(buf);
+        }
+        if (num_read < 0) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stream closed before reaching the end, nobody is waiting for the end.
+      interrupted = true;
+    } catch (Throwable e) {
+      error_ = e;
+    } finally {
+      // Never blocks since the queue has room for all the buffers and the end of stream.
+      if (!interrupted) {
+        filled_.offer(kEndOfStream);
+      }
+    }
+  }
+
+  private ByteBuffer TakeBuffer() {
+    ByteBuffer buf = DirectBufferPool.Take();
+    buffers_[num_buffers_++] = buf;
+    return buf;
+  }
+
+  // Returns the buffer with the bytes to be consumed, null at the end of the stream.
+  private ByteBuffer CurrentBuffer() throws IOException {
+    if (closed_) {
+      throw new IOException("stream closed");
+    }
+    while (!eof_ && (current_ == null || !current_.hasRemaining())) {
+      if (current_ != null) {
+        free_.add(current_);
+        current_ = null;
+      }
+      try {
+        ByteBuffer buf = filled_.take();
+        if (buf == kEndOfStream) {
+          eof_ = true;
+        } else {
+          current_ = buf;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for read-ahead");
+      }
+    }
+    if (eof_) {
+      if (error_ instanceof IOException) {
+        throw (IOException) error_;
+      }
+      if (error_ != null) {
+        throw new IOException("read-ahead failed", error_);
+      }
+      return null;
+    }
+    return current_;
+  }
+
+  @Override
+  public int read() throws IOException {
+    ByteBuffer buf = CurrentBuffer();
+    return buf == null ? -1 : buf.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    ByteBuffer buf = CurrentBuffer();
+    if (buf == null) {
+      return -1;
+    }
+    int num_read = Math.min(len, buf.remaining());
+    buf.get(b, off, num_read);
+    return num_read;
+  }
+
+  @Override
+  public int available() {
+    return current_ != null ? current_.remaining() : 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed_) {
+      return;
+    }
+    closed_ = true;
+    reader_.interrupt();
+    try {
+      reader_.join();
+      // The reader thread is done with the buffers.
+      for (int i = 0; i < num_buffers_; i++) {
+        DirectBufferPool.Release(buffers_[i]);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    channel_.close();
+  }
+}
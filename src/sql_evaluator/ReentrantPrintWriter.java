@@ -0,0 +1,290 @@
+package sql_evaluator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PrintWriter encoding the characters into an OutputStream while holding a ReentrantLock
+ * instead of a monitor, for the output of queries evaluated on virtual threads.
+ *
+ * The methods of PrintWriter, and of the OutputStreamWriter and BufferedWriter usually
+ * beneath it, are synchronized. A virtual thread blocking in them, e.g. while an
+ * AsyncOutputStream waits for its writer thread to free a buffer, stays pinned to its
+ * carrier thread. Blocking while holding a ReentrantLock unmounts the virtual thread
+ * instead. Every method of PrintWriter which synchronizes or writes to the underlying
+ * writer is overridden, the others only call these.
+ *
+ * The characters are encoded as OutputStreamWriter does, replacing malformed and
+ * unmappable characters, so the output is the same. Like PrintWriter, errors are
+ * reported by checkError() instead of being thrown.
+ */
+public final class ReentrantPrintWriter extends PrintWriter {
+  private static final int kBufferSize = 8192;
+
+  // Writer passed to PrintWriter, never written to since all the methods writing to it
+  // are overridden.
+  private static final Writer kUnusedWriter = new Writer() {
+    @Override
+    public void write(char[] buf, int off, int len) {
+      throw new AssertionError("unexpected write");
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  };
+
+  private final ReentrantLock lock_ = new ReentrantLock();
+  private final OutputStream out_;
+  private final CharsetEncoder encoder_;
+  // Characters written but not yet encoded.
+  private final CharBuffer chars_ = CharBuffer.allocate(kBufferSize);
+  // Encoded bytes not yet written to 'out_'.
+  private final ByteBuffer bytes_ = ByteBuffer.allocate(kBufferSize);
+  private boolean closed_ = false;
+
+  /**
+   * @param out stream to write the encoded characters to, closed when the writer is closed.
+   * @param charset charset to encode the characters with.
+   */
+  public ReentrantPrintWriter(OutputStream out, Charset charset) {
+    super(kUnusedWriter);
+    out_ = out;
+    encoder_ = charset.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  @Override
+  public void write(int c) {
+    lock_.lock();
+    try {
+      if (!chars_.hasRemaining()) {
+        Encode(false);
+      }
+      chars_.put((char) c);
+    } catch (IOException e) {
+      HandleError(e);
+    } finally {
+      lock_.unlock();
+    }
+  }
+
+  @Override
+  public void write(char[] buf, int off, int len) {
+    lock_.lock();
+    try {
+      while (len > 0) {
+        if (!chars_.hasRemaining()) {
+          Encode(false);
+        }
+        int num_chars = Math.min(len, chars_.remaining());
+        chars_.put(buf, off, num_chars);
+        off += num_chars;
+        len -= num_chars;
+      }
+    } catch (IOException e) {
+      HandleError(e);
+    } finally {
+      lock_.unlock();
+    }
+  }
+
+  @Override
+  public void write(char[] buf) {
+    write(buf, 0, buf.length);
+  }
+
+  @Override
+  public void write(String s, int off, int len) {
+    lock_.lock();
+    try {
+      while (len > 0) {
+        if (!chars_.hasRemaining()) {
+          Encode(false);
+        }
+        int num_chars = Math.min(len, chars_.remaining());
+        s.getChars(off, off + num_chars, chars_.array(),
+          chars_.arrayOffset() + chars_.position());
+        chars_.position(chars_.position() + num_chars);
+        off += num_chars;
+        len -= num_chars;
+      }
+    } catch (IOException e) {
+      HandleError(e);
+    } finally {
+      lock_.unlock();
+    }
+  }
+
+  @Override
+  public void write(String s) {
+    write(s, 0, s.length());
+  }
+
+  @Override
+  public void println() {
+    write(System.lineSeparator());
+  }
+
+  @Override
+  public void println(boolean x) {
+    println(String.valueOf(x));
+  }
+
+  @Override
+  public void println(char x) {
+    println(String.valueOf(x));
+  }
+
+  @Override
+  public void println(int x) {
+    println(String.valueOf(x));
+  }
+
+  @Override
+  public void println(long x) {
+    println(String.valueOf(x));
+  }
+
+  @Override
+  public void println(float x) {
+    println(String.valueOf(x));
+  }
+
+  @Override
+  public void println(double x) {
+    println(String.valueOf(x));
+  }
+
+  @Override
+  public void println(char[] x) {
+    println(new String(x));
+  }
+
+  @Override
+  public void println(Object x) {
+    println(String.valueOf(x));
+  }
+
+  @Override
+  public void println(String x) {
+    lock_.lock();
+    try {
+      print(x);
+      println();
+    } finally {
+      lock_.unlock();
+    }
+  }
+
+  @Override
+  public PrintWriter format(String format, Object... args) {
+    return format(Locale.getDefault(), format, args);
+  }
+
+  @Override
+  public PrintWriter format(Locale locale, String format, Object... args) {
+    lock_.lock();
+    try {
+      new Formatter(this, locale).format(format, args);
+    } finally {
+      lock_.unlock();
+    }
+    return this;
+  }
+
+  @Override
+  public void flush() {
+    lock_.lock();
+    try {
+      if (!closed_) {
+        Encode(false);
+        out_.flush();
+      }
+    } catch (IOException e) {
+      HandleError(e);
+    } finally {
+      lock_.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock_.lock();
+    try {
+      if (closed_) {
+        return;
+      }
+      closed_ = true;
+      try {
+        Encode(true);
+      } finally {
+        out_.close();
+      }
+    } catch (IOException e) {
+      HandleError(e);
+    } finally {
+      lock_.unlock();
+    }
+  }
+
+  @Override
+  public boolean checkError() {
+    flush();
+    return super.checkError();
+  }
+
+  // Encodes the buffered characters and writes the bytes to the stream. A trailing high
+  // surrogate is kept for the next call, unless it's the end of the input.
+  private void Encode(boolean end_of_input) throws IOException {
+    if (closed_ && !end_of_input) {
+      throw new IOException("stream closed");
+    }
+    chars_.flip();
+    while (true) {
+      CoderResult result = encoder_.encode(chars_, bytes_, end_of_input);
+      if (result.isOverflow()) {
+        WriteBytes();
+        continue;
+      }
+      if (end_of_input) {
+        while (encoder_.flush(bytes_).isOverflow()) {
+          WriteBytes();
+        }
+        encoder_.reset();
+      }
+      break;
+    }
+    chars_.compact();
+    WriteBytes();
+  }
+
+  private void WriteBytes() throws IOException {
+    if (bytes_.position() > 0) {
+      out_.write(bytes_.array(), bytes_.arrayOffset(), bytes_.position());
+      bytes_.clear();
+    }
+  }
+
+  private void HandleError(IOException e) {
+    if (e instanceof InterruptedIOException) {
+      Thread.currentThread().interrupt();
+    }
+    setError();
+  }
+}
@@ -0,0 +1,214 @@
+package sql_evaluator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import sql_evaluator.Table.ColumnDef;
+
+/**
+ * Writes the result of a query in the format of Main.writeTable(), serializing the cells
+ * of the rows directly into a reusable buffer instead of going through Jackson for every
+ * row. The output is identical to what Jackson produces.
+ *
+ * Ints are formatted two digits at a time from a table. Strings are copied as is unless
+ * they contain a character Jackson escapes, i.e. '"', '\\' or a control character below
+ * 0x20. Those are escaped as "\n" etc. where JSON has a short escape and as a unicode
+ * escape with 4 uppercase hex digits otherwise.
+ */
+final class ResultWriter {
+  private static final int kBufferSize = 8192;
+  private static final char[] kHexDigits = "0123456789ABCDEF".toCharArray();
+  // "00", "01", ..., "99".
+  private static final char[] kDigitPairs = new char[200];
+  // For each ASCII character, 0 if it's written as is, the character following the
+  // backslash of its short escape, or 'u' for a unicode escape.
+  private static final char[] kEscapes = new char[128];
+
+  static {
+    for (int i = 0; i < 100; i++) {
+      kDigitPairs[2 * i] = (char) ('0' + i / 10);
+      kDigitPairs[2 * i + 1] = (char) ('0' + i % 10);
+    }
+    for (int c = 0; c < 0x20; c++) {
+      kEscapes[c] = 'u';
+    }
+    kEscapes['\b'] = 'b';
+    kEscapes['\t'] = 't';
+    kEscapes['\f'] = 'f';
+    kEscapes['\n'] = 'n';
+    kEscapes['\r'] = 'r';
+    kEscapes['"'] = '"';
+    kEscapes['\\'] = '\\';
+  }
+
+  private final Writer out_;
+  private final char[] buf_ = new char[kBufferSize];
+  private int pos_ = 0;
+  // Whether the next cell is the first one of the row.
+  private boolean first_cell_ = true;
+
+  /**
+   * Writes the header of the result with the columns.
+   */
+  ResultWriter(Writer out, List<ColumnDef> columns) throws IOException {
+    out_ = out;
+    out_.write("[\n    ");
+    // Written once, so not worth serializing by hand.
+    JacksonUtil.write(out_, columns);
+  }
+
+  void BeginRow() throws IOException {
+    Reserve(7);
+    buf_[pos_++] = ',';
+    buf_[pos_++] = '\n';
+    for (int i = 0; i < 4; i++) {
+      buf_[pos_++] = ' ';
+    }
+    buf_[pos_++] = '[';
+    first_cell_ = true;
+  }
+
+  void EndRow() throws IOException {
+    Reserve(1);
+    buf_[pos_++] = ']';
+  }
+
+  /**
+   * Writes the cell, either a String or an Integer.
+   */
+  void WriteValue(Object value) throws IOException {
+    if (value instanceof Integer) {
+      WriteInt((Integer) value);
+    } else {
+      WriteString((String) value);
+    }
+  }
+
+  void WriteInt(int value) throws IOException {
+    // Separator, sign and up to 10 digits.
+    Reserve(12);
+    WriteSeparator();
+    if (value == Integer.MIN_VALUE) {
+      for (char c : "-2147483648".toCharArray()) {
+        buf_[pos_++] = c;
+      }
+      return;
+    }
+    if (value < 0) {
+      buf_[pos_++] = '-';
+      value = -value;
+    }
+    int num_digits = NumDigits(value);
+    int end = pos_ + num_digits;
+    int pos = end;
+    while (value >= 100) {
+      int pair = (value % 100) * 2;
+      value /= 100;
+      buf_[--pos] = kDigitPairs[pair + 1];
+      buf_[--pos] = kDigitPairs[pair];
+    }
+    if (value >= 10) {
+      buf_[--pos] = kDigitPairs[value * 2 + 1];
+      buf_[--pos] = kDigitPairs[value * 2];
+    } else {
+      buf_[--pos] = (char) ('0' + value);
+    }
+    pos_ = end;
+  }
+
+  void WriteString(String value) throws IOException {
+    Reserve(2);
+    WriteSeparator();
+    buf_[pos_++] = '"';
+    int len = value.length();
+    int start = 0;
+    for (int i = 0; i < len; i++) {
+      char c = value.charAt(i);
+      if (c < 128 && kEscapes[c] != 0) {
+        WriteChars(value, start, i);
+        WriteEscape(c);
+        start = i + 1;
+      }
+    }
+    WriteChars(value, start, len);
+    Reserve(1);
+    buf_[pos_++] = '"';
+  }
+
+  /**
+   * Writes a row already serialized by another ResultWriter, given as the characters
+   * [start, end) of 'line' from the opening to the closing bracket of the row.
+   */
+  void WriteSerializedRow(String line, int start, int end) throws IOException {
+    Reserve(6);
+    buf_[pos_++] = ',';
+    buf_[pos_++] = '\n';
+    for (int i = 0; i < 4; i++) {
+      buf_[pos_++] = ' ';
+    }
+    WriteChars(line, start, end);
+  }
+
+  /**
+   * Writes the end of the result and flushes the buffered output to the writer, without
+   * closing it.
+   */
+  void Finish() throws IOException {
+    Flush();
+    out_.write("\n]\n");
+  }
+
+  private void WriteSeparator() {
+    if (!first_cell_) {
+      buf_[pos_++] = ',';
+    }
+    first_cell_ = false;
+  }
+
+  // Copies the characters [start, end) of the string, which need no escaping.
+  private void WriteChars(String value, int start, int end) throws IOException {
+    while (start < end) {
+      if (pos_ == buf_.length) {
+        Flush();
+      }
+      int num_chars = Math.min(end - start, buf_.length - pos_);
+      value.getChars(start, start + num_chars, buf_, pos_);
+      pos_ += num_chars;
+      start += num_chars;
+    }
+  }
+
+  private void WriteEscape(char c) throws IOException {
+    Reserve(6);
+    buf_[pos_++] = '\\';
+    char escape = kEscapes[c];
+    buf_[pos_++] = escape;
+    if (escape == 'u') {
+      buf_[pos_++] = '0';
+      buf_[pos_++] = '0';
+      buf_[pos_++] = kHexDigits[c >> 4];
+      buf_[pos_++] = kHexDigits[c & 0xF];
+    }
+  }
+
+  // Makes room for 'num_chars' characters in the buffer.
+  private void Reserve(int num_chars) throws IOException {
+    if (pos_ + num_chars > buf_.length) {
+      Flush();
+    }
+  }
+
+  private void Flush() throws IOException {
+    out_.write(buf_, 0, pos_);
+    pos_ = 0;
+  }
+
+  private static int NumDigits(int value) {
+    int num_digits = 1;
+    for (int limit = 10; num_digits < 10 && value >= limit; limit *= 10) {
+      num_digits++;
+    }
+    return num_digits;
+  }
+}
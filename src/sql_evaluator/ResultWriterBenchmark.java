@@ -0,0 +1,87 @@
+package sql_evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Measures the time to write a table as a query result with ResultWriter, see
+ * Main.writeTable(), and with a Jackson writer per row as before, after checking that both
+ * give the same output.
+ *
+ * Usage: ResultWriterBenchmark <table-folder> <table-name> [<iterations>]
+ *
+ * The table is loaded once, on the heap since the Jackson writer writes its rows, and
+ * written to a Writer only counting the characters, so the times don't include encoding
+ * or writing the output. Both ways are timed alternately, see Benchmarks.Measure(), and
+ * the best and median times over the iterations are reported.
+ */
+public final class ResultWriterBenchmark {
+  private ResultWriterBenchmark() {}
+
+  // Writer discarding the characters, Writer.nullWriter() being Java 11+.
+  private static final class CountingWriter extends Writer {
+    long num_chars_ = 0;
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+      num_chars_ += len;
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+      num_chars_ += len;
+    }
+
+    @Override
+    public void write(int c) {
+      num_chars_++;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  public static void main(String[] args) throws Exception {
+    Benchmarks.CheckUsage(args, 2, 3, "ResultWriterBenchmark <table-folder> <table-name> [<iterations>]");
+    String path = args[0] + File.separator + args[1] + ".table.json";
+    int num_iterations = Benchmarks.IntArg(args, 2, 10);
+    Table table = JacksonUtil.readFromFile(path, Table.class);
+
+    StringWriter expected = new StringWriter();
+    WriteWithJackson(expected, table);
+    StringWriter actual = new StringWriter();
+    Main.writeTable(actual, table);
+    if (!expected.toString().equals(actual.toString())) {
+      System.err.println("ResultWriter output differs from the Jackson output");
+      System.exit(1); return;
+    }
+
+    long[][] times_ns = Benchmarks.Time(num_iterations,
+      () -> WriteWithJackson(new CountingWriter(), table),
+      () -> Main.writeTable(new CountingWriter(), table));
+    System.out.printf("%d rows, %d chars%n", table.storage.NumRows(), actual.getBuffer().length());
+    System.out.printf("Jackson per row: %s%n", Benchmarks.FormatTimes(times_ns[0]));
+    System.out.printf("ResultWriter:    %s%n", Benchmarks.FormatTimes(times_ns[1]));
+  }
+
+  // Writes the table as Main.writeTable() did before ResultWriter.
+  private static void WriteWithJackson(Writer out, Table table) throws IOException {
+    out.write("[\n");
+
+    out.write("    ");
+    JacksonUtil.write(out, table.columns);
+
+    for (List<Object> row : table.rows) {
+      out.write(",\n    ");
+      JacksonUtil.write(out, row);
+    }
+
+    out.write("\n]\n");
+  }
+}
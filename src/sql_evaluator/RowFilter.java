@@ -0,0 +1,16 @@
+package sql_evaluator;
+
+/**
+ * Predicate applied to every row of the cross product to evaluate the where clause.
+ *
+ * Public since the filters generated by FilterCompiler are defined by a separate
+ * class loader and hence can't implement a package-private interface.
+ */
+public interface RowFilter {
+  /**
+   * @param tables the tables in the order of the "from" clause.
+   * @param row_idxs current row index in each of the tables.
+   * @return whether the row of the cross product satisfies the where clause.
+   */
+  boolean Test(TableStorage[] tables, int[] row_idxs);
+}
@@ -0,0 +1,235 @@
+package sql_evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sql_evaluator.QueryEvaluator.ResolvedCondition;
+import sql_evaluator.QueryEvaluator.ResolvedTerm;
+import sql_evaluator.TableStats.ColumnStats;
+
+/**
+ * Plans which rows of each table need to be enumerated in the cross product of a
+ * multi-table query, so that rows which can't satisfy the where clause are discarded
+ * before the cross product multiplies them with the rows of the other tables.
+ *
+ * 1. Conditions referring to a single table, e.g. "dim.name = 'x'", are applied to the
+ *    rows of that table by themselves.
+ * 2. For an equality condition between columns of two tables, e.g. "fact.id = dim.id",
+ *    where one of them (dim) has been filtered in step 1 down to fewer rows than the
+ *    other (fact), a Bloom filter is built on the join key of the remaining rows of dim
+ *    and the rows of fact whose join key isn't in the Bloom filter are discarded.
+ *
+ * The where clause is still evaluated on every row of the cross product, so the planned
+ * rows only need to be a superset of the rows contributing to the result.
+ *
+ * The selectivity of the conditions is estimated from the TableStats of the tables when
+ * they've been analyzed. The tables are always enumerated in the order of the "from"
+ * clause, since that determines the order of the result rows.
+ */
+final class ScanPlanner {
+  private ScanPlanner() {}
+
+  /**
+   * Returns, for each of the tables in the order of the "from" clause, the ascending row
+   * indices that need to be enumerated or null if all the rows need to be enumerated.
+   */
+  static int[][] PlanRowSelections(List<Table> tables, List<ResolvedCondition> where,
+                                   Cancellation cancellation) {
+    int num_tables = tables.size();
+    TableStorage[] storages = new TableStorage[num_tables];
+    for (int pos = 0; pos < num_tables; pos++) {
+      storages[pos] = tables.get(pos).storage;
+    }
+
+    // Step 1: Apply the conditions referring to a single table.
+    int[][] selections = new int[num_tables][];
+    for (int pos = 0; pos < num_tables; pos++) {
+      ArrayList<ResolvedCondition> local_conds = new ArrayList<>();
+      for (ResolvedCondition cond : where) {
+        if (GetSingleTablePos(cond) == pos) {
+          local_conds.add(cond);
+        }
+      }
+      if (local_conds.isEmpty()) {
+        continue;
+      }
+      int[] row_idxs = new int[num_tables];
+      IntList selection = new IntList(16);
+      for (int row = 0; row < storages[pos].NumRows(); row++) {
+        if (row % Cancellation.kCheckInterval == 0) {
+          cancellation.Check();
+        }
+        row_idxs[pos] = row;
+        if (QueryEvaluator.EvaluateConditions(local_conds, storages, row_idxs)) {
+          selection.Add(row);
+        }
+      }
+      selections[pos] = selection.ToArray();
+    }
+
+    // Step 2: Semi-join reduction of the larger table in the equi-join conditions with
+    // a Bloom filter on the join key of the filtered smaller table.
+    // Only the selections from step 1 are used to build the Bloom filters.
+    int[][] reduced_selections = selections.clone();
+    for (ResolvedCondition cond : where) {
+      if (cond.op != Condition.Op.EQ || cond.left.is_literal || cond.right.is_literal ||
+          cond.left.table_pos == cond.right.table_pos) {
+        continue;
+      }
+      for (ResolvedTerm[] dim_fact : Arrays.asList(new ResolvedTerm[] {cond.left, cond.right},
+                                                   new ResolvedTerm[] {cond.right, cond.left})) {
+        ResolvedTerm dim = dim_fact[0];
+        ResolvedTerm fact = dim_fact[1];
+        int[] dim_rows = selections[dim.table_pos];
+        int[] fact_rows = reduced_selections[fact.table_pos];
+        int num_fact_rows = fact_rows != null ? fact_rows.length :
+          storages[fact.table_pos].NumRows();
+        if (dim_rows == null || dim_rows.length >= num_fact_rows) {
+          continue;
+        }
+        BloomFilter bloom_filter = new BloomFilter(dim_rows.length);
+        for (int row : dim_rows) {
+          bloom_filter.Add(HashKey(storages[dim.table_pos], row, dim));
+        }
+        IntList reduced = new IntList(16);
+        for (int i = 0; i < num_fact_rows; i++) {
+          if (i % Cancellation.kCheckInterval == 0) {
+            cancellation.Check();
+          }
+          int row = fact_rows != null ? fact_rows[i] : i;
+          if (bloom_filter.MightContain(HashKey(storages[fact.table_pos], row, fact))) {
+            reduced.Add(row);
+          }
+        }
+        reduced_selections[fact.table_pos] = reduced.ToArray();
+      }
+    }
+    return reduced_selections;
+  }
+
+  /**
+   * Estimates the cost of enumerating the cross product as the product of the number of
+   * rows of each table remaining after applying the conditions referring to that table.
+   */
+  static double EstimateCost(List<Table> tables, List<ResolvedCondition> where) {
+    double cost = 1;
+    for (int pos = 0; pos < tables.size(); pos++) {
+      double num_rows = tables.get(pos).storage.NumRows();
+      for (ResolvedCondition cond : where) {
+        if (GetSingleTablePos(cond) == pos) {
+          num_rows *= EstimateSelectivity(tables, cond);
+        }
+      }
+      cost *= num_rows;
+    }
+    return cost;
+  }
+
+  /**
+   * Orders the conditions by ascending estimated selectivity, so that evaluating them in
+   * order rejects most of the rows with the first conditions. Conditions with the same
+   * estimate keep their order.
+   */
+  static void OrderBySelectivity(List<Table> tables, List<ResolvedCondition> where) {
+    Map<ResolvedCondition, Double> selectivities = new IdentityHashMap<>();
+    for (ResolvedCondition cond : where) {
+      selectivities.put(cond, EstimateSelectivity(tables, cond));
+    }
+    where.sort((a, b) -> Double.compare(selectivities.get(a), selectivities.get(b)));
+  }
+
+  // Estimates the fraction of rows satisfying the condition from the statistics of the
+  // referenced columns. Without any knowledge of the data, use the selectivities commonly
+  // assumed by query planners.
+  private static double EstimateSelectivity(List<Table> tables, ResolvedCondition cond) {
+    // Normalize "literal op column" to "column op literal".
+    boolean swap = cond.left.is_literal;
+    ResolvedTerm column = swap ? cond.right : cond.left;
+    ResolvedTerm other = swap ? cond.left : cond.right;
+    Condition.Op op = swap ? Mirror(cond.op) : cond.op;
+    ColumnStats stats = GetColumnStats(tables, column);
+    if (stats != null && other.is_literal) {
+      Object value = other.type == SqlType.INT ? (Object) other.int_literal : other.str_literal;
+      switch (op) {
+        case EQ:
+          return stats.EqualFraction(value);
+        case NE:
+          return 1 - stats.EqualFraction(value);
+        case LT:
+          return stats.LessFraction(value, false);
+        case LE:
+          return stats.LessFraction(value, true);
+        case GT:
+          return 1 - stats.LessFraction(value, true);
+        case GE:
+          return 1 - stats.LessFraction(value, false);
+        default:
+          throw new AssertionError("unhandled Op: " + op);
+      }
+    }
+    ColumnStats other_stats = GetColumnStats(tables, other);
+    if (stats != null && other_stats != null && (op == Condition.Op.EQ ||
+                                                 op == Condition.Op.NE)) {
+      // Each value of the column with fewer distinct values matches one of the other's.
+      double equal = 1.0 / Math.max(1, Math.max(stats.distinctCount,
+                                                other_stats.distinctCount));
+      return op == Condition.Op.EQ ? equal : 1 - equal;
+    }
+    switch (cond.op) {
+      case EQ:
+        return 0.1;
+      case NE:
+        return 0.9;
+      default:
+        return 1.0 / 3;
+    }
+  }
+
+  // Returns the operator with the terms swapped, e.g. "1 < a" is "a > 1".
+  private static Condition.Op Mirror(Condition.Op op) {
+    switch (op) {
+      case LT:
+        return Condition.Op.GT;
+      case LE:
+        return Condition.Op.GE;
+      case GT:
+        return Condition.Op.LT;
+      case GE:
+        return Condition.Op.LE;
+      default:
+        return op;
+    }
+  }
+
+  // Returns the statistics of the column term, null for a literal or in case its table
+  // hasn't been analyzed.
+  private static ColumnStats GetColumnStats(List<Table> tables, ResolvedTerm term) {
+    if (term.is_literal) {
+      return null;
+    }
+    TableStats stats = tables.get(term.table_pos).stats;
+    return stats != null ? stats.columns.get(term.col_idx) : null;
+  }
+
+  // Returns the position of the table in case all the column terms of the condition refer
+  // to the same table, -1 otherwise.
+  private static int GetSingleTablePos(ResolvedCondition cond) {
+    if (cond.left.is_literal) {
+      return cond.right.is_literal ? -1 : cond.right.table_pos;
+    }
+    if (cond.right.is_literal || cond.left.table_pos == cond.right.table_pos) {
+      return cond.left.table_pos;
+    }
+    return -1;
+  }
+
+  private static long HashKey(TableStorage table, int row, ResolvedTerm term) {
+    if (term.type == SqlType.INT) {
+      return BloomFilter.Hash(table.GetInt(row, term.col_idx));
+    }
+    return BloomFilter.Hash(table.GetString(row, term.col_idx));
+  }
+}
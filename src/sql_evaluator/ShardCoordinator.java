@@ -0,0 +1,187 @@
+package sql_evaluator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a query in multiple local worker processes, for cross products too large to be
+ * evaluated by a single JVM in a reasonable time or heap.
+ *
+ * The rows of the first table of the "from" clause are split into contiguous ranges, the
+ * shards, and each worker is a JVM running Main in "--shard" mode: it loads only the rows
+ * of its shard of the first table, and all the rows of the other tables, evaluates the
+ * query and writes the result to its stdout. Since the first table varies slowest in the
+ * cross product, the result is the concatenation of the rows of the shards in shard order,
+ * which the coordinator copies from the pipes of the workers into the output. That's the
+ * same output as evaluating the query in a single process.
+ *
+ * The query is validated by the coordinator against the columns of the tables before
+ * starting the workers, so errors are printed as QueryEvaluator would. Every worker stops
+ * at the row limit, and the coordinator stops the remaining workers once the limit is
+ * reached.
+ */
+final class ShardCoordinator {
+  // Prefixes of the JVM options passed on to the workers: the system properties, the heap
+  // and stack sizes and the assertions. Others such as agents, debuggers, logs and heap
+  // dumps would conflict between the workers over their ports and files.
+  private static final String[] kForwardedJvmOptionPrefixes = {
+    "-D", "-Xms", "-Xmx", "-Xmn", "-Xss", "-XX:MaxDirectMemorySize=",
+    "-XX:InitialRAMPercentage=", "-XX:MaxRAMPercentage=", "-ea", "-da",
+    "-enableassertions", "-disableassertions",
+  };
+
+  private ShardCoordinator() {}
+
+  /**
+   * Validates the query and evaluates it with the workers, writing the output to the
+   * supplied output writer. In case of an invalid query, the error is printed to the output.
+   *
+   * @param query the query to be evaluated.
+   * @param table_name_map map of the table alias name from the "from" clause to the
+   *                       corresponding table, which only needs the columns.
+   * @param num_rows number of rows of the first table.
+   * @param num_shards number of shards, the number of rows permitting.
+   * @param worker_args arguments of Main following the shard bounds, i.e. the table folder
+   *                    and the query file.
+   * @return  Whether the query evaluation was successful.
+   * @throws IOException in case a worker fails, leaving the output incomplete.
+   */
+  static boolean Evaluate(Query query, Map<String, Table> table_name_map, int num_rows,
+                          int num_shards, List<String> worker_args, PrintWriter out)
+    throws IOException {
+    QueryEvaluator evaluator = new QueryEvaluator(query, out, table_name_map);
+    if (!evaluator.Prepare()) {
+      return false;
+    }
+    num_shards = Math.max(1, Math.min(num_shards, num_rows));
+    int row_limit = query.limit != null ? query.limit : -1;
+
+    ArrayList<Process> workers = new ArrayList<>();
+    try (Writer buffered_out = new BufferedWriter(out)) {
+      ResultWriter writer = new ResultWriter(buffered_out, evaluator.GetResultColumns());
+      if (row_limit != 0 && num_rows > 0) {
+        for (int shard = 0; shard < num_shards; shard++) {
+          int start_row = (int) ((long) num_rows * shard / num_shards);
+          int end_row = (int) ((long) num_rows * (shard + 1) / num_shards);
+          workers.add(StartWorker(start_row, end_row, worker_args));
+        }
+      }
+      int num_result_rows = 0;
+      for (int shard = 0; shard < workers.size(); shard++) {
+        if (row_limit >= 0 && num_result_rows >= row_limit) {
+          break;
+        }
+        num_result_rows += CopyRows(shard, workers.get(shard), row_limit - num_result_rows,
+          writer);
+      }
+      writer.Finish();
+    } finally {
+      // Stops the workers which are no longer needed on reaching the row limit, or all of
+      // them in case of a failure.
+      for (Process worker : workers) {
+        worker.destroy();
+      }
+    }
+    return true;
+  }
+
+  // Starts the JVM evaluating the query over the rows [start_row, end_row) of the first
+  // table, with the forwarded JVM options and the class path of this one.
+  private static Process StartWorker(int start_row, int end_row, List<String> worker_args)
+    throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator +
+      "java");
+    for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (IsForwardedJvmOption(option)) {
+        command.add(option);
+      }
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Main.class.getName());
+    command.add("--shard");
+    command.add(Integer.toString(start_row));
+    command.add(Integer.toString(end_row));
+    command.addAll(worker_args);
+    Process worker = new ProcessBuilder(command)
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+    worker.getOutputStream().close();
+    return worker;
+  }
+
+  private static boolean IsForwardedJvmOption(String option) {
+    for (String prefix : kForwardedJvmOptionPrefixes) {
+      if (option.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Copies the rows of the result of the worker, up to 'max_rows' of them unless negative,
+  // and returns the number of rows copied.
+  //
+  // The worker writes the result in the format of Main.writeTable(), in UTF-8: a line with
+  // "[", a line with the columns, a line per row and a line with "]". A row always fits a
+  // line since the line breaks within strings are escaped. Every line but the first and
+  // last is indented and ends with a comma unless it's the last one of the array.
+  private static int CopyRows(int shard, Process worker, int max_rows, ResultWriter writer)
+    throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(worker.getInputStream(),
+      StandardCharsets.UTF_8), 1 << 16);
+    String line = in.readLine();
+    if (line != null && !line.equals("[")) {
+      throw new IOException("shard " + shard + " failed: " + line);
+    }
+    if (line == null || in.readLine() == null) {
+      ResultEnded(shard, worker);
+    }
+    int num_rows = 0;
+    while (max_rows < 0 || num_rows < max_rows) {
+      line = in.readLine();
+      if (line == null) {
+        ResultEnded(shard, worker);
+      }
+      if (line.equals("]")) {
+        WaitForWorker(shard, worker);
+        break;
+      }
+      int end = line.endsWith(",") ? line.length() - 1 : line.length();
+      writer.WriteSerializedRow(line, 4, end);
+      num_rows++;
+    }
+    return num_rows;
+  }
+
+  // Fails on the unexpected end of the result of the worker, with its exit code in case
+  // it failed, e.g. on loading the tables. The worker has printed the error to stderr.
+  private static void ResultEnded(int shard, Process worker) throws IOException {
+    WaitForWorker(shard, worker);
+    throw new IOException("shard " + shard + " failed: truncated result");
+  }
+
+  private static void WaitForWorker(int shard, Process worker) throws IOException {
+    int exit_code;
+    try {
+      exit_code = worker.waitFor();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted waiting for shard " + shard, e);
+    }
+    if (exit_code != 0) {
+      throw new IOException("shard " + shard + " failed with exit code " + exit_code);
+    }
+  }
+}
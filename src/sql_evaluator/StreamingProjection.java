@@ -0,0 +1,83 @@
+package sql_evaluator;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import sql_evaluator.Table.ColumnDef;
+
+/**
+ * Evaluates a query selecting columns from a single table without a where clause while
+ * reading the table file, instead of loading the whole table first.
+ *
+ * Every row of the table is a row of the result, so each row is written out as soon as
+ * it's read. Only the cells of the selected columns are materialized; the others are
+ * skipped after checking their type. The query is validated against the columns in the
+ * header of the table file as QueryEvaluator would, with the same errors.
+ */
+final class StreamingProjection {
+  private StreamingProjection() {}
+
+  /**
+   * Returns whether the query can be evaluated while reading its table.
+   */
+  static boolean Applies(Query query) {
+    return query.from.size() == 1 && query.where.isEmpty();
+  }
+
+  /**
+   * Evaluates the query reading the table from the parser and writes the output to the
+   * supplied output writer, which is left open. In case of an invalid query, the error is
+   * printed to the output.
+   *
+   * @return  Whether the query evaluation was successful.
+   */
+  static boolean Evaluate(Query query, JsonParser jp, PrintWriter out) throws IOException {
+    assert Applies(query);
+    jp.nextToken();
+    ArrayList<ColumnDef> columns = Table.Deserializer.readColumns(jp);
+
+    // Validate and resolve the query against a table with just the columns.
+    Table header = new Table(columns, new ArrayList<>());
+    QueryEvaluator evaluator = new QueryEvaluator(query, out,
+      Collections.singletonMap(query.from.get(0).name, header));
+    if (!evaluator.Prepare()) {
+      return false;
+    }
+    int[] col_idxs = evaluator.GetProjectedColumnIndices();
+    boolean[] referenced = new boolean[columns.size()];
+    for (int col_idx : col_idxs) {
+      referenced[col_idx] = true;
+    }
+    int row_limit = query.limit != null ? query.limit : -1;
+
+    // Not wrapped in a BufferedWriter since ResultWriter buffers the rows itself.
+    ResultWriter writer = new ResultWriter(out, evaluator.GetResultColumns());
+    ArrayList<Object> cells = new ArrayList<>(columns.size());
+    int num_rows = 0;
+    while (row_limit < 0 || num_rows < row_limit) {
+      if (jp.currentToken() == JsonToken.END_ARRAY) {
+        if (jp.nextToken() != null) {
+          throw new JsonParseException(jp,
+            "found unexpected data after entire value was parsed");
+        }
+        break;
+      }
+      cells.clear();
+      Table.Deserializer.readRow(jp, columns, referenced, cells);
+      writer.BeginRow();
+      for (int col_idx : col_idxs) {
+        writer.WriteValue(cells.get(col_idx));
+      }
+      writer.EndRow();
+      num_rows++;
+    }
+    writer.Finish();
+    return true;
+  }
+}
@@ -17,7 +17,7 @@ import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Set;
 
 /**
  * Represents the data loaded from a ".table.json" file.
@@ -25,12 +25,42 @@ import java.util.List;
 @JsonDeserialize(using=Table.Deserializer.class)
 @JsonSerialize(using=Table.Serializer.class)
 public final class Table extends Node {
+    /**
+     * Context attribute that, when set to true, makes the deserializer load the rows
+     * into an {@link OffHeapTableStorage} instead of {@link #rows}.
+     */
+    public static final String OFF_HEAP_ATTRIBUTE = "sql_evaluator.Table.offHeap";
+
+    /**
+     * Context attribute with the {@code Set<String>} of the names of the columns referenced by the
+     * query. The deserializer skips the cells of the other columns without materializing them,
+     * leaving them null in {@link #rows} (0 or "" off-heap). Such a table can only be used for
+     * evaluating that query.
+     */
+    public static final String REFERENCED_COLUMNS_ATTRIBUTE = "sql_evaluator.Table.referencedColumns";
+
+    /**
+     * Context attribute with an {@code int[]} of the range [start, end) of the rows to load. The
+     * deserializer skips the other rows without materializing them, so the table only has the rows
+     * of the range, e.g. the shard of the table evaluated by a worker of {@link ShardCoordinator}.
+     */
+    public static final String ROW_RANGE_ATTRIBUTE = "sql_evaluator.Table.rowRange";
+
     public final ArrayList<ColumnDef> columns;
-    public final ArrayList<ArrayList<Object>> rows;  // Each value is either a String or Integer object.
+    public final ArrayList<ArrayList<Object>> rows;  // Each value is either a String or Integer object.  null if stored off-heap.
+    public final TableStorage storage;  // Access to the rows irrespective of where they're stored.
+    public TableStats stats;  // Statistics used by the planner, null unless the table has been analyzed.
 
     public Table(ArrayList<ColumnDef> columns, ArrayList<ArrayList<Object>> rows) {
         this.columns = columns;
         this.rows = rows;
+        this.storage = new HeapTableStorage(rows);
+    }
+
+    public Table(ArrayList<ColumnDef> columns, OffHeapTableStorage storage) {
+        this.columns = columns;
+        this.rows = null;
+        this.storage = storage;
     }
 
     @JsonFormat(shape=JsonFormat.Shape.ARRAY)
@@ -54,6 +84,59 @@ public final class Table extends Node {
 
         @Override
         public Table deserialize(JsonParser jp, DeserializationContext ctx) throws IOException {
+            ArrayList<ColumnDef> columns = readColumns(jp);
+
+            boolean[] referenced = null;
+            Set<?> referencedNames = (Set<?>) ctx.getAttribute(REFERENCED_COLUMNS_ATTRIBUTE);
+            if (referencedNames != null) {
+                referenced = new boolean[columns.size()];
+                for (int i = 0; i < columns.size(); i++) {
+                    referenced[i] = referencedNames.contains(columns.get(i).name);
+                }
+            }
+
+            int[] rowRange = (int[]) ctx.getAttribute(ROW_RANGE_ATTRIBUTE);
+            int startRow = rowRange != null ? rowRange[0] : 0;
+            int endRow = rowRange != null ? rowRange[1] : Integer.MAX_VALUE;
+
+            if (Boolean.TRUE.equals(ctx.getAttribute(OFF_HEAP_ATTRIBUTE))) {
+                // Each row is only held until it's copied to the off-heap storage, so the same
+                // list is reused for all of them.
+                OffHeapTableStorage.Builder builder = new OffHeapTableStorage.Builder(columns);
+                ArrayList<Object> cells = new ArrayList<>(columns.size());
+                for (int row = 0; jp.getCurrentToken() != JsonToken.END_ARRAY; row++) {
+                    if (row < startRow || row >= endRow) {
+                        skipRow(jp);
+                    } else {
+                        cells.clear();
+                        readRow(jp, columns, referenced, cells);
+                        builder.AddRow(cells);
+                    }
+                }
+                jp.nextToken();
+
+                return new Table(columns, builder.Build());
+            }
+
+            ArrayList<ArrayList<Object>> rows = new ArrayList<>();
+            for (int row = 0; jp.getCurrentToken() != JsonToken.END_ARRAY; row++) {
+                if (row < startRow || row >= endRow) {
+                    skipRow(jp);
+                } else {
+                    ArrayList<Object> cells = new ArrayList<>(columns.size());
+                    readRow(jp, columns, referenced, cells);
+                    rows.add(cells);
+                }
+            }
+            jp.nextToken();
+
+            return new Table(columns, rows);
+        }
+
+        /**
+         * Reads the columns of the table the parser is positioned at and advances to its first row.
+         */
+        static ArrayList<ColumnDef> readColumns(JsonParser jp) throws IOException {
             if (!jp.isExpectedStartArrayToken()) {
                 throw new JsonParseException(jp, "expecting start of an array (for table)");
             }
@@ -61,31 +144,39 @@ public final class Table extends Node {
 
             ArrayList<ColumnDef> columns = jp.readValueAs(new TypeReference<ArrayList<ColumnDef>>() {});
             jp.nextToken();
+            return columns;
+        }
 
-            ArrayList<ArrayList<Object>> rows = new ArrayList<>();
-            while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
-                rows.add(readRow(jp, columns));
+        /**
+         * Skips the row the parser is positioned at without checking its cells.
+         */
+        private static void skipRow(JsonParser jp) throws IOException {
+            if (!jp.isExpectedStartArrayToken()) {
+                throw new JsonParseException(jp, "expecting start of an array (for table row), got" + jp.getCurrentToken());
             }
+            jp.skipChildren();
             jp.nextToken();
-
-            return new Table(columns, rows);
         }
 
-        private ArrayList<Object> readRow(JsonParser jp, ArrayList<ColumnDef> columns) throws IOException {
+        /**
+         * Reads the row the parser is positioned at, appending its cells to 'cells', and advances past it.
+         * Cells of the columns not marked in 'referenced' are left null and skipped after only
+         * checking their token type, without materializing their values. A null 'referenced'
+         * reads all the cells.
+         */
+        static void readRow(JsonParser jp, ArrayList<ColumnDef> columns, boolean[] referenced, ArrayList<Object> cells) throws IOException {
             if (!jp.isExpectedStartArrayToken()) {
                 throw new JsonParseException(jp, "expecting start of an array (for table row), got" + jp.getCurrentToken());
             }
             jp.nextToken();
 
-            ArrayList<Object> row = new ArrayList<>();
-
             for (int i = 0; i < columns.size(); i++) {
                 // If there aren't enough cells...
                 if (jp.currentToken() == JsonToken.END_ARRAY) {
                     throw new JsonParseException(jp, "row only has " + i + " values, but there are " + columns.size() + " columns");
                 }
 
-                row.add(readCell(jp, columns.get(i)));;
+                cells.add(readCell(jp, columns.get(i), referenced == null || referenced[i]));
             }
 
             // If there are too many cells...
@@ -93,26 +184,28 @@ public final class Table extends Node {
                 throw new JsonParseException(jp, "row has more than " + columns.size() + " values, but there are only " + columns.size() + " columns");
             }
             jp.nextToken();
-
-            return row;
         }
 
-        private Object readCell(JsonParser jp, ColumnDef columnDef) throws IOException {
-            Object value;
+        private static Object readCell(JsonParser jp, ColumnDef columnDef, boolean materialize) throws IOException {
+            Object value = null;
 
             switch (columnDef.type) {
                 case STR:
                     if (jp.currentToken() != JsonToken.VALUE_STRING) {
                         throw new JsonParseException(jp, "got invalid cell value for column \"" + columnDef.name + "\"; expecting a string");
                     }
-                    value = jp.getText();
+                    if (materialize) {
+                        value = jp.getText();
+                    }
                     jp.nextToken();
                     break;
                 case INT:
                     if (jp.currentToken() != JsonToken.VALUE_NUMBER_INT) {
                         throw new JsonParseException(jp, "got invalid cell value for column \"" + columnDef.name + "\"; expecting an integer");
                     }
-                    value = jp.getIntValue();
+                    if (materialize) {
+                        value = jp.getIntValue();
+                    }
                     jp.nextToken();
                     break;
                 default:
@@ -130,18 +223,19 @@ public final class Table extends Node {
 
         @Override
         public void serialize(Table t, JsonGenerator g, SerializerProvider serializerProvider) throws IOException {
-            g.writeStartArray(t.rows.size() + 1);
+            int numRows = t.storage.NumRows();
+            g.writeStartArray(numRows + 1);
 
             g.writeObject(t.columns);
 
-            for (int i = 0; i < t.rows.size(); i++) {
-                List<Object> row = t.rows.get(i);
-                if (row.size() != t.columns.size()) {
-                    throw new AssertionError("row " + (i+1) + " has " + row.size() + " cells, but the table has " + t.columns.size() + " columns");
+            for (int i = 0; i < numRows; i++) {
+                if (t.rows != null && t.rows.get(i).size() != t.columns.size()) {
+                    throw new AssertionError("row " + (i+1) + " has " + t.rows.get(i).size() + " cells, but the table has " + t.columns.size() + " columns");
                 }
 
-                g.writeStartArray(row.size());
-                for (Object cell : row) {
+                g.writeStartArray(t.columns.size());
+                for (int col = 0; col < t.columns.size(); col++) {
+                    Object cell = t.storage.GetValue(i, col);
                     if (cell instanceof String) {
                         g.writeString((String) cell);
                     } else if (cell instanceof Integer) {
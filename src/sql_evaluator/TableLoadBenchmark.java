@@ -0,0 +1,37 @@
+package sql_evaluator;
+
+import java.io.File;
+
+/**
+ * Measures the time to load a table from its ".table.json" file and from its gzip
+ * compressed ".table.json.gz" file, e.g. created with "gzip -k", without evaluating any
+ * query. Loading the compressed file reads fewer bytes from disk but decompresses them on
+ * a separate thread, see JacksonUtil.openFile().
+ *
+ * Usage: TableLoadBenchmark <table-folder> <table-name> [<iterations>]
+ *
+ * The files which exist are loaded alternately, see Benchmarks.Measure(), and the best and
+ * median times over the iterations are reported.
+ */
+public final class TableLoadBenchmark {
+  private TableLoadBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    Benchmarks.CheckUsage(args, 2, 3, "TableLoadBenchmark <table-folder> <table-name> [<iterations>]");
+    String path = args[0] + File.separator + args[1] + ".table.json";
+    int num_iterations = Benchmarks.IntArg(args, 2, 10);
+    String[] paths = new File(path + ".gz").exists() ? new String[] {path, path + ".gz"} :
+      new String[] {path};
+    Benchmarks.Body[] loads = new Benchmarks.Body[paths.length];
+    for (int p = 0; p < paths.length; p++) {
+      String load_path = paths[p];
+      loads[p] = () -> JacksonUtil.readFromFile(load_path, Table.class);
+    }
+    long[][] times_ns = Benchmarks.Time(num_iterations, loads);
+    int num_rows = JacksonUtil.readFromFile(path, Table.class).storage.NumRows();
+    for (int p = 0; p < paths.length; p++) {
+      System.out.printf("%s: %d bytes, %d rows, %s%n", paths[p], new File(paths[p]).length(),
+        num_rows, Benchmarks.FormatTimes(times_ns[p]));
+    }
+  }
+}
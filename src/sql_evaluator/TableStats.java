@@ -0,0 +1,197 @@
+package sql_evaluator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import sql_evaluator.Table.ColumnDef;
+
+/**
+ * Statistics of the data in a table used by the planner to estimate the selectivity of
+ * the conditions, persisted in a ".stats.json" file next to the ".table.json" file.
+ */
+public final class TableStats extends Node {
+    // Number of buckets of the equi-depth histograms.
+    private static final int kNumBuckets = 32;
+    // Number of values sampled from each column to build its histogram.
+    private static final int kSampleSize = 10000;
+
+    public final int rowCount;
+    public final ArrayList<ColumnStats> columns;  // In the order of the columns of the table.
+
+    @JsonCreator
+    public TableStats(
+        @JsonProperty("rowCount") int rowCount,
+        @JsonProperty("columns") ArrayList<ColumnStats> columns
+    ) {
+        if (columns == null) throw new IllegalArgumentException("'columns' can't be null");
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    public static final class ColumnStats extends Node {
+        public final String name;
+        public final SqlType type;
+        public final long distinctCount;  // Estimated with a HyperLogLog sketch.
+        public final Object min;  // null if the table is empty.
+        public final Object max;  // null if the table is empty.
+        // Boundaries of the equi-depth histogram, starting with the min and ending with the
+        // max. Each bucket between two consecutive boundaries holds roughly the same
+        // number of rows. Empty if the table is empty.
+        public final ArrayList<Object> histogram;
+
+        @JsonCreator
+        public ColumnStats(
+            @JsonProperty("name") String name,
+            @JsonProperty("type") SqlType type,
+            @JsonProperty("distinctCount") long distinctCount,
+            @JsonProperty("min") Object min,
+            @JsonProperty("max") Object max,
+            @JsonProperty("histogram") ArrayList<Object> histogram
+        ) {
+            if (name == null) throw new IllegalArgumentException("'name' can't be null");
+            if (type == null) throw new IllegalArgumentException("'type' can't be null");
+            if (histogram == null) throw new IllegalArgumentException("'histogram' can't be null");
+            this.name = name;
+            this.type = type;
+            this.distinctCount = distinctCount;
+            this.min = min;
+            this.max = max;
+            this.histogram = histogram;
+        }
+
+        /**
+         * Returns the estimated fraction of the rows equal to 'value', assuming the
+         * distinct values within [min, max] are equally frequent.
+         */
+        public double EqualFraction(Object value) {
+            if (min == null || Compare(value, min) < 0 || Compare(value, max) > 0) {
+                return 0;
+            }
+            return 1.0 / Math.max(1, distinctCount);
+        }
+
+        /**
+         * Returns the estimated fraction of the rows less than 'value', or less than or
+         * equal to it if 'inclusive'.
+         */
+        public double LessFraction(Object value, boolean inclusive) {
+            if (histogram.isEmpty()) {
+                return 0;
+            }
+            int num_buckets = histogram.size() - 1;
+            // Index of the first boundary not less than the value.
+            int idx = 0;
+            while (idx < histogram.size() && Compare(histogram.get(idx), value) < 0) {
+                idx++;
+            }
+            double fraction;
+            if (idx == 0) {
+                fraction = 0;
+            } else if (idx == histogram.size() || num_buckets == 0) {
+                fraction = 1;
+            } else {
+                // The value is in the bucket (histogram[idx - 1], histogram[idx]].
+                fraction = (idx - 1 + FractionOfBucket(histogram.get(idx - 1),
+                    histogram.get(idx), value)) / num_buckets;
+            }
+            if (inclusive) {
+                fraction += EqualFraction(value);
+            }
+            return Math.min(1, fraction);
+        }
+
+        // Position of the value within the bucket, interpolated for int values.
+        private static double FractionOfBucket(Object lower, Object upper, Object value) {
+            if (value instanceof Integer) {
+                double width = (double) (Integer) upper - (Integer) lower;
+                return width > 0 ? ((double) (Integer) value - (Integer) lower) / width : 1;
+            }
+            return 0.5;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int Compare(Object a, Object b) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+    }
+
+    /**
+     * Returns whether the statistics describe the columns and rows of the table, e.g. the
+     * table file hasn't been rewritten with another schema or number of rows since.
+     */
+    public boolean Matches(Table table) {
+        if (rowCount != table.storage.NumRows() || columns.size() != table.columns.size()) {
+            return false;
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnDef column = table.columns.get(i);
+            if (!columns.get(i).name.equals(column.name) || columns.get(i).type != column.type) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the statistics with one pass over each column of the table.
+     * The histograms are built from a fixed size sample of the rows, so the result is
+     * reproducible for the same table.
+     */
+    public static TableStats Compute(Table table) {
+        TableStorage storage = table.storage;
+        int num_rows = storage.NumRows();
+        ArrayList<ColumnStats> columns = new ArrayList<>();
+        for (int col = 0; col < table.columns.size(); col++) {
+            ColumnDef column = table.columns.get(col);
+            HyperLogLog distinct = new HyperLogLog();
+            Object[] sample = new Object[Math.min(num_rows, kSampleSize)];
+            Random random = new Random(0);
+            Object min = null;
+            Object max = null;
+            for (int row = 0; row < num_rows; row++) {
+                Object value;
+                if (column.type == SqlType.INT) {
+                    int int_value = storage.GetInt(row, col);
+                    distinct.Add(BloomFilter.Hash(int_value));
+                    value = int_value;
+                } else {
+                    String str_value = storage.GetString(row, col);
+                    distinct.Add(BloomFilter.Hash(str_value));
+                    value = str_value;
+                }
+                if (min == null || ColumnStats.Compare(value, min) < 0) {
+                    min = value;
+                }
+                if (max == null || ColumnStats.Compare(value, max) > 0) {
+                    max = value;
+                }
+                // Reservoir sampling keeps each row with the same probability.
+                if (row < sample.length) {
+                    sample[row] = value;
+                } else {
+                    int idx = random.nextInt(row + 1);
+                    if (idx < sample.length) {
+                        sample[idx] = value;
+                    }
+                }
+            }
+            ArrayList<Object> histogram = new ArrayList<>();
+            if (num_rows > 0) {
+                Arrays.sort(sample);
+                histogram.add(min);
+                for (int bucket = 1; bucket < kNumBuckets; bucket++) {
+                    histogram.add(sample[(int) ((long) bucket * (sample.length - 1) / kNumBuckets)]);
+                }
+                histogram.add(max);
+            }
+            long distinct_count = Math.min(distinct.Estimate(), num_rows);
+            columns.add(new ColumnStats(column.name, column.type, distinct_count, min, max,
+                histogram));
+        }
+        return new TableStats(num_rows, columns);
+    }
+}
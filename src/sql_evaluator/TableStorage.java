@@ -0,0 +1,42 @@
+package sql_evaluator;
+
+/**
+ * Read access to the rows of a table.
+ *
+ * Rows and columns are addressed by their index, so that the evaluator can scan tables
+ * without depending on how the cells are stored, see HeapTableStorage and
+ * OffHeapTableStorage.
+ *
+ * Public since the filters generated by FilterCompiler access the tables through this
+ * interface.
+ */
+public interface TableStorage {
+  int NumRows();
+
+  /**
+   * Returns the value of the cell, either a String or Integer object.
+   */
+  Object GetValue(int row, int col);
+
+  /**
+   * Returns the value of the cell in an "int" column.
+   */
+  int GetInt(int row, int col);
+
+  /**
+   * Returns the value of the cell in a "str" column.
+   */
+  String GetString(int row, int col);
+
+  /**
+   * Compares the cell in a "str" column with 'value' the same way as String.compareTo(),
+   * without creating any objects.
+   */
+  int CompareString(int row, int col, String value);
+
+  /**
+   * Compares the cell in a "str" column with the cell in a "str" column of 'other',
+   * the same way as String.compareTo(), without creating any objects.
+   */
+  int CompareStrings(int row, int col, TableStorage other, int other_row, int other_col);
+}
@@ -47,6 +47,19 @@ public abstract class Term extends Node {
             this.value = value;
         }
 
+        public boolean isString() {
+            return value instanceof String;
+        }
+
+        /** The value of an integer literal, unboxed once so that the cells can be compared with an int. */
+        public int intValue() {
+            return (Integer) value;
+        }
+
+        public String stringValue() {
+            return (String) value;
+        }
+
         public static final class Deserializer extends StdDeserializer<Literal> {
             public Deserializer() {
                 super(Literal.class);
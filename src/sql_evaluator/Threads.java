@@ -0,0 +1,99 @@
+package sql_evaluator;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads evaluating the queries, as virtual threads when running on a JDK
+ * supporting them (21+) and as daemon platform threads otherwise.
+ *
+ * Virtual threads are cheap enough to run every query on its own thread. A query thread
+ * blocked on the queues of ReadAheadInputStream or AsyncOutputStream is unmounted from its
+ * carrier thread, unless it holds a monitor, e.g. the lock of a java.io Writer flushing
+ * into an AsyncOutputStream. Such a pinned thread keeps its carrier thread until the
+ * stream's own thread makes progress, so the reader and writer threads of the streams
+ * remain platform threads: were they virtual, all the carrier threads could end up pinned
+ * by queries waiting for them.
+ *
+ * The virtual thread API is looked up reflectively since the code is compiled for Java 8.
+ */
+final class Threads {
+  private Threads() {}
+
+  // Thread.ofVirtual() and the Thread.Builder methods, null if not supported.
+  private static final Class<?> kBuilderClass = LookupBuilderClass();
+
+  // The API is probed by creating a virtual thread factory and executor, since on JDK 19
+  // and 20 it's a preview API: the methods exist but throw UnsupportedOperationException
+  // unless running with --enable-preview.
+  private static Class<?> LookupBuilderClass() {
+    try {
+      Class<?> builder_class = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Object factory = builder_class.getMethod("factory").invoke(builder);
+      ((ExecutorService) Executors.class
+        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory))
+        .shutdown();
+      return builder_class;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether the threads are created as virtual threads.
+   */
+  static boolean VirtualThreadsSupported() {
+    return kBuilderClass != null;
+  }
+
+  /**
+   * Returns a factory of threads named 'name_prefix' followed by a sequence number.
+   */
+  static ThreadFactory NewThreadFactory(String name_prefix) {
+    if (kBuilderClass != null) {
+      try {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = kBuilderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, name_prefix, 1L);
+        return (ThreadFactory) kBuilderClass.getMethod("factory").invoke(builder);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("failed to create virtual thread factory", e);
+      }
+    }
+    return NewPlatformThreadFactory(name_prefix);
+  }
+
+  /**
+   * Returns a factory of daemon platform threads named 'name_prefix' followed by a
+   * sequence number, for the threads which need to be platform threads, e.g. those of
+   * a fixed size pool running CPU bound work.
+   */
+  static ThreadFactory NewPlatformThreadFactory(String name_prefix) {
+    AtomicInteger num_threads = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name_prefix + num_threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Returns an executor starting a new thread for every task, instead of queueing the
+   * tasks for a limited number of threads.
+   */
+  static ExecutorService NewThreadPerTaskExecutor(String name_prefix) {
+    ThreadFactory factory = NewThreadFactory(name_prefix);
+    if (kBuilderClass != null) {
+      try {
+        return (ExecutorService) Executors.class
+          .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("failed to create virtual thread executor", e);
+      }
+    }
+    return Executors.newCachedThreadPool(factory);
+  }
+}
@@ -0,0 +1,190 @@
+package sql_evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Load test evaluating many concurrent queries with a QueryScheduler, comparing the fast
+ * lane of NewVirtualThreadScheduler(), a virtual thread per query, with the fast lane of a
+ * fixed number of platform threads. All the queries run in the fast lane.
+ *
+ * Like the connections of a server, each query has its own client thread loading the
+ * tables with Main.loadTables() and submitting the query to the scheduler. The result is
+ * written to a file through a ReentrantPrintWriter on the thread of the lane, which waits
+ * for the whole result to be written when closing the output.
+ *
+ * Usage: VirtualThreadLoadTest <table-folder> <sql-json-file> [<num-queries>
+ *          [<max-in-flight> [<num-platform-threads> [<write-delay-ms>]]]]
+ *
+ * At most <max-in-flight> queries are in flight at a time: each query holds the direct
+ * buffers of its ReadAheadInputStream and AsyncOutputStream, so an unbounded number of
+ * them would exhaust the direct memory.
+ *
+ * With <write-delay-ms>, every write to a result file first sleeps that long, simulating
+ * the latency of writing to a network attached disk. That's where a thread per query pays
+ * off: the fixed lane can only wait for as many results at a time as it has threads.
+ *
+ * The latency of a query is from its submission to the scheduler to the end of its
+ * evaluation, including the wait for a thread of the lane. On JDK 21+, running with
+ * -Djdk.tracePinnedThreads=full prints the stack of any virtual thread blocking while
+ * pinned to its carrier thread, which shouldn't happen.
+ */
+public final class VirtualThreadLoadTest {
+  private final String table_folder_;
+  private final Query query_;
+  private final int num_queries_;
+  private final int max_in_flight_;
+  private final long write_delay_ms_;
+  private final Path output_dir_;
+  // Sorted latencies of the queries of the last run with each scheduler, and the stats of
+  // the scheduler at the end of the run.
+  private final long[][] latencies_ns_ = new long[2][];
+  private final QueryScheduler.Stats[] stats_ = new QueryScheduler.Stats[2];
+
+  // Channel to a result file sleeping before each write.
+  private static final class SlowChannel implements WritableByteChannel {
+    private final WritableByteChannel channel_;
+    private final long delay_ms_;
+
+    SlowChannel(WritableByteChannel channel, long delay_ms) {
+      channel_ = channel;
+      delay_ms_ = delay_ms;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      if (delay_ms_ > 0) {
+        try {
+          Thread.sleep(delay_ms_);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while delaying the write");
+        }
+      }
+      return channel_.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel_.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel_.close();
+    }
+  }
+
+  private VirtualThreadLoadTest(String table_folder, Query query, int num_queries,
+                                int max_in_flight, long write_delay_ms, Path output_dir) {
+    table_folder_ = table_folder;
+    query_ = query;
+    num_queries_ = num_queries;
+    max_in_flight_ = max_in_flight;
+    write_delay_ms_ = write_delay_ms;
+    output_dir_ = output_dir;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Benchmarks.CheckUsage(args, 2, 6, "VirtualThreadLoadTest <table-folder> <sql-json-file> " +
+      "[<num-queries> [<max-in-flight> [<num-platform-threads> [<write-delay-ms>]]]]");
+    Query query = JacksonUtil.readFromFile(args[1], Query.class);
+    int num_queries = Benchmarks.IntArg(args, 2, 1000);
+    int max_in_flight = Benchmarks.IntArg(args, 3, 100);
+    int num_platform_threads = Benchmarks.IntArg(args, 4,
+      2 * Runtime.getRuntime().availableProcessors());
+    int write_delay_ms = Benchmarks.IntArg(args, 5, 0);
+    Path output_dir = Files.createTempDirectory("sql_evaluator-load-test-");
+    try {
+      System.out.println("virtual threads supported: " + Threads.VirtualThreadsSupported());
+      VirtualThreadLoadTest test = new VirtualThreadLoadTest(args[0], query, num_queries,
+        max_in_flight, write_delay_ms, output_dir);
+      // Every query runs in the fast lane, the heavy lane is unused.
+      long[][] times_ns = Benchmarks.Time(1,
+        () -> test.Run(0, QueryScheduler.NewVirtualThreadScheduler(1, Double.POSITIVE_INFINITY, 0)),
+        () -> test.Run(1, new QueryScheduler(num_platform_threads, 1, Double.POSITIVE_INFINITY, 0)));
+      String[] names = {"thread per query", num_platform_threads + " platform threads"};
+      for (int i = 0; i < names.length; i++) {
+        double elapsed_s = times_ns[i][0] / 1e9;
+        long[] latencies_ns = test.latencies_ns_[i];
+        System.out.printf("%-20s %d queries in %.2fs, %.0f queries/s, latency p50 %.1fms " +
+            "p99 %.1fms, lane wait avg %.1fms max %.1fms%n", names[i], num_queries, elapsed_s,
+          num_queries / elapsed_s, Benchmarks.Percentile(latencies_ns, 50) / 1e6,
+          Benchmarks.Percentile(latencies_ns, 99) / 1e6, test.stats_[i].avg_wait_ms,
+          test.stats_[i].max_wait_ms);
+      }
+    } finally {
+      // Files of failed queries may be left behind.
+      for (File file : output_dir.toFile().listFiles()) {
+        file.delete();
+      }
+      output_dir.toFile().delete();
+    }
+  }
+
+  // Evaluates the copies of the query with the scheduler, and records their latencies and
+  // the stats of the scheduler as those of 'run'.
+  private void Run(int run, QueryScheduler new_scheduler) throws Exception {
+    ExecutorService clients = Threads.NewThreadPerTaskExecutor("load-test-client-");
+    Semaphore in_flight = new Semaphore(max_in_flight_);
+    List<Future<Long>> latencies = new ArrayList<>();
+    try (QueryScheduler scheduler = new_scheduler) {
+      for (int i = 0; i < num_queries_; i++) {
+        Path output_file = output_dir_.resolve("result-" + i + ".json");
+        in_flight.acquire();
+        latencies.add(clients.submit(() -> {
+          try {
+            return EvaluateQuery(scheduler, output_file);
+          } finally {
+            in_flight.release();
+          }
+        }));
+      }
+      long[] latencies_ns = new long[num_queries_];
+      for (int i = 0; i < num_queries_; i++) {
+        latencies_ns[i] = latencies.get(i).get();
+      }
+      Arrays.sort(latencies_ns);
+      latencies_ns_[run] = latencies_ns;
+      stats_[run] = scheduler.GetStats();
+    } finally {
+      clients.shutdown();
+    }
+  }
+
+  // Loads the tables and evaluates the query with the scheduler, returning the time from
+  // its submission to the end of its evaluation.
+  private long EvaluateQuery(QueryScheduler scheduler, Path output_file) throws Exception {
+    Map<String, Table> table_name_map = Main.loadTables(table_folder_, query_, null);
+    WritableByteChannel channel = new SlowChannel(FileChannel.open(output_file,
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+      StandardOpenOption.WRITE), write_delay_ms_);
+    try (PrintWriter out = new ReentrantPrintWriter(new AsyncOutputStream(channel),
+           StandardCharsets.UTF_8)) {
+      long submit_ns = System.nanoTime();
+      // The evaluator closes the output once the result is written.
+      if (!scheduler.Submit(new QueryEvaluator(query_, out, table_name_map)).get()) {
+        throw new IOException("evaluation of the query failed");
+      }
+      return System.nanoTime() - submit_ns;
+    } finally {
+      Files.delete(output_file);
+    }
+  }
+}